@@ -0,0 +1,96 @@
+package com.zh.stockdemo.benchmark;
+
+import com.zh.stockdemo.config.StockProperties;
+import com.zh.stockdemo.mq.mq.codec.DecreaseStockMessageCodec;
+import com.zh.stockdemo.mq.mq.domain.MessageWrapper;
+import com.zh.stockdemo.mq.mq.event.DecreaseStockEvent;
+import com.zh.stockdemo.mq.mq.event.DecreaseStockItem;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 库存扣减消息 MessageWrapper&lt;DecreaseStockEvent&gt; 的编解码，二进制编码与 JSON 编码对比
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MessageCodecBenchmark {
+
+    /**
+     * single：单商品下单，cart：10 个商品的购物车
+     */
+    @Param({"single", "cart"})
+    private String shape;
+
+    private DecreaseStockMessageCodec binaryCodec;
+
+    private DecreaseStockMessageCodec jsonCodec;
+
+    private MessageWrapper<DecreaseStockEvent> message;
+
+    private byte[] binaryBody;
+
+    private byte[] jsonBody;
+
+    @Setup
+    public void setUp() {
+        StockProperties binaryProperties = new StockProperties();
+        binaryProperties.getCodec().setBinaryEnabled(true);
+        binaryCodec = new DecreaseStockMessageCodec(binaryProperties);
+        StockProperties jsonProperties = new StockProperties();
+        jsonProperties.getCodec().setBinaryEnabled(false);
+        jsonCodec = new DecreaseStockMessageCodec(jsonProperties);
+
+        DecreaseStockEvent event;
+        if ("cart".equals(shape)) {
+            List<DecreaseStockItem> items = new ArrayList<>();
+            for (int i = 0; i < 10; i++) {
+                items.add(DecreaseStockItem.builder().productId(1000 + i).amount(i + 1).build());
+            }
+            event = DecreaseStockEvent.builder().stockLogId(123456789).items(items).build();
+            message = new MessageWrapper<>("cart_123456789", event);
+        } else {
+            event = DecreaseStockEvent.builder().productId(1001).stockLogId(123456789).amount(1).build();
+            message = new MessageWrapper<>("1001", event);
+        }
+        binaryBody = binaryCodec.encode(message);
+        jsonBody = jsonCodec.encode(message);
+    }
+
+    @Benchmark
+    public byte[] encodeBinary() {
+        return binaryCodec.encode(message);
+    }
+
+    @Benchmark
+    public byte[] encodeJson() {
+        return jsonCodec.encode(message);
+    }
+
+    @Benchmark
+    public MessageWrapper<DecreaseStockEvent> decodeBinary() {
+        return binaryCodec.decode(binaryBody);
+    }
+
+    @Benchmark
+    public MessageWrapper<DecreaseStockEvent> decodeJson() {
+        return jsonCodec.decode(jsonBody);
+    }
+}
@@ -0,0 +1,71 @@
+package com.zh.stockdemo.benchmark;
+
+import com.zh.stockdemo.config.StockProperties;
+import com.zh.stockdemo.metrics.StockMetrics;
+import com.zh.stockdemo.mq.mq.codec.DecreaseStockMessageCodec;
+import com.zh.stockdemo.mq.mq.event.DecreaseStockEvent;
+import com.zh.stockdemo.mq.mq.produce.DecreaseStockProducer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.rocketmq.spring.core.RocketMQTemplate;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.core.env.ConfigurableEnvironment;
+import org.springframework.core.env.MapPropertySource;
+import org.springframework.core.env.StandardEnvironment;
+import org.springframework.messaging.Message;
+
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * DecreaseStockProducer 构建消息的开销，包括解析 topic/tag 占位符、生成 keys 和编码消息体
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ProducerBuildMessageBenchmark {
+
+    private BenchmarkProducer producer;
+
+    private DecreaseStockEvent event;
+
+    @Setup
+    public void setUp() {
+        StandardEnvironment environment = new StandardEnvironment();
+        environment.getPropertySources().addFirst(new MapPropertySource("benchmark",
+                Collections.singletonMap("rocketmq.producer.send-message-timeout", "2000")));
+        producer = new BenchmarkProducer(environment, new DecreaseStockMessageCodec(new StockProperties()));
+        event = DecreaseStockEvent.builder().productId(1001).stockLogId(123456789).amount(1).build();
+    }
+
+    @Benchmark
+    public Message<?> buildMessage() {
+        return producer.build(event);
+    }
+
+    /**
+     * 暴露 protected 的消息构建方法，不连接 Broker
+     */
+    private static class BenchmarkProducer extends DecreaseStockProducer {
+
+        private BenchmarkProducer(ConfigurableEnvironment environment, DecreaseStockMessageCodec codec) {
+            super(new RocketMQTemplate(), environment, codec, new StockMetrics(new SimpleMeterRegistry()));
+        }
+
+        private Message<?> build(DecreaseStockEvent event) {
+            return buildMessage(event, buildBaseSendExtendParam(event));
+        }
+    }
+}
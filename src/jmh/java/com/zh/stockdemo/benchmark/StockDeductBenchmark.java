@@ -0,0 +1,117 @@
+package com.zh.stockdemo.benchmark;
+
+import com.zh.stockdemo.constant.StockRedisConstant;
+import com.zh.stockdemo.redis.EmbeddedRedis;
+import com.zh.stockdemo.redis.RedisScriptRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.scripting.support.ResourceScriptSource;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Redis 库存扣减热点路径
+ * <p>
+ * 对比每次请求从 classpath 构建脚本（早期 OrderServiceImpl 的写法）与 {@link RedisScriptRegistry} 缓存脚本的开销，
+ * 以及单次扣减与合并扣减 16 个请求的 Lua 调用，Redis 为本地启动的 redis-server。
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StockDeductBenchmark {
+
+    private static final int PRODUCT_ID = 1001;
+
+    private static final Object[] BATCH_AMOUNTS = Collections.nCopies(16, 1).toArray();
+
+    private EmbeddedRedis embeddedRedis;
+
+    private RedisTemplate<String, Object> redisTemplate;
+
+    private RedisScriptRegistry redisScriptRegistry;
+
+    private List<String> stockKeys;
+
+    private List<String> batchKeys;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        embeddedRedis = new EmbeddedRedis();
+        redisTemplate = embeddedRedis.getRedisTemplate();
+        redisScriptRegistry = embeddedRedis.getRedisScriptRegistry();
+        stockKeys = Collections.singletonList(StockRedisConstant.stockKey(PRODUCT_ID));
+        batchKeys = Arrays.asList(StockRedisConstant.stockKey(PRODUCT_ID), StockRedisConstant.stockInvalidKey(PRODUCT_ID),
+                StockRedisConstant.stockLeaseKey(PRODUCT_ID));
+    }
+
+    /**
+     * 每轮迭代前补足库存，保证测得的都是扣减成功的路径
+     */
+    @Setup(Level.Iteration)
+    public void resetStock() {
+        redisTemplate.opsForValue().set(StockRedisConstant.stockKey(PRODUCT_ID), 1_000_000_000L);
+        redisTemplate.delete(StockRedisConstant.stockInvalidKey(PRODUCT_ID));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        embeddedRedis.close();
+    }
+
+    @Benchmark
+    public String buildScript() {
+        return newScript().getSha1();
+    }
+
+    @Benchmark
+    public String cachedScript() {
+        return redisScriptRegistry.getScript(StockRedisConstant.LUA_DECRESE_STOCK).getSha1();
+    }
+
+    @Benchmark
+    public Long deductWithBuiltScript() {
+        return redisTemplate.execute(newScript(), stockKeys, 1);
+    }
+
+    @Benchmark
+    public Long deductWithCachedScript() {
+        return redisScriptRegistry.execute(StockRedisConstant.LUA_DECRESE_STOCK, stockKeys, 1);
+    }
+
+    /**
+     * 一次合并扣减 16 个请求，单次耗时除以 16 即为每个请求分摊的耗时
+     */
+    @Benchmark
+    @SuppressWarnings("unchecked")
+    public List<Long> deductBatch16() {
+        return redisScriptRegistry.execute(StockRedisConstant.LUA_DECREASE_STOCK_BATCH, List.class, batchKeys, BATCH_AMOUNTS);
+    }
+
+    private DefaultRedisScript<Long> newScript() {
+        DefaultRedisScript<Long> redisScript = new DefaultRedisScript<>();
+        redisScript.setScriptSource(new ResourceScriptSource(new ClassPathResource("lua/" + StockRedisConstant.LUA_DECRESE_STOCK + ".lua")));
+        redisScript.setResultType(Long.class);
+        return redisScript;
+    }
+}
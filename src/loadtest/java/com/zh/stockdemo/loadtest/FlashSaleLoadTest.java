@@ -0,0 +1,297 @@
+package com.zh.stockdemo.loadtest;
+
+import com.alibaba.fastjson2.JSON;
+import com.alibaba.fastjson2.JSONWriter;
+import com.zh.stockdemo.StockDemoApplication;
+import com.zh.stockdemo.constant.StockRedisConstant;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.jdbc.core.JdbcTemplate;
+import redis.embedded.RedisServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.ServerSocket;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+
+/**
+ * 秒杀端到端压测
+ * <p>
+ * 在本地启动 redis-server，以 loadtest profile 启动应用（H2 代替 MySQL，{@link LocalTransactionBroker} 代替 RocketMQ），
+ * 由 buyers 个线程并发调用 /order/create/{productId}，共发出 requests 个请求，统计 TPS 与 p50/p99/p999 延迟，
+ * 以及 StockMetrics 记录的各阶段耗时。
+ * 等所有事务消息消费完成后核对 stock、order、stock_log 与 Redis 库存，检查超卖和少卖，
+ * 结果输出到控制台和 loadtest.report 指定的 JSON 文件，核对失败时以非 0 状态退出。
+ *
+ */
+public class FlashSaleLoadTest {
+
+    private static final String CREATED = "created successfully";
+
+    private static final String SOLD_OUT = "库存不足";
+
+    private static final String BUSY = "系统繁忙";
+
+    public static void main(String[] args) throws Exception {
+        int buyers = Integer.getInteger("loadtest.buyers", 64);
+        int requests = Integer.getInteger("loadtest.requests", 20000);
+        int stock = Integer.getInteger("loadtest.stock", 1000);
+        int productId = Integer.getInteger("loadtest.product-id", 1);
+        int amount = Integer.getInteger("loadtest.amount", 1);
+        Duration drainTimeout = Duration.ofSeconds(Long.getLong("loadtest.drain-timeout-seconds", 120L));
+        String reportPath = System.getProperty("loadtest.report", "target/loadtest-report.json");
+
+        int redisPort = freePort();
+        RedisServer redisServer = RedisServer.newRedisServer()
+                .port(redisPort)
+                .setting("bind 127.0.0.1")
+                .setting("save \"\"")
+                .build();
+        redisServer.start();
+        // 命令行参数优先于 application-loadtest.yml
+        String[] applicationArgs = Arrays.copyOf(args, args.length + 1);
+        applicationArgs[args.length] = "--spring.redis.port=" + redisPort;
+        boolean passed;
+        try (ConfigurableApplicationContext context = new SpringApplicationBuilder(StockDemoApplication.class)
+                .profiles("loadtest")
+                .run(applicationArgs)) {
+            JdbcTemplate jdbcTemplate = context.getBean(JdbcTemplate.class);
+            RedisTemplate<String, Object> redisTemplate = context.getBean("redisTemplate", RedisTemplate.class);
+            LocalTransactionBroker broker = context.getBean(LocalTransactionBroker.class);
+
+            // MySQL 同步库存按 stock.id 更新，这里让 id 与 product_id 相同
+            jdbcTemplate.update("INSERT INTO stock (id, product_id, product_name, stock_num) VALUES (?, ?, ?, ?)",
+                    productId, productId, "loadtest", stock);
+            redisTemplate.opsForValue().set(StockRedisConstant.stockKey(productId), stock);
+
+            String url = "http://127.0.0.1:" + context.getEnvironment().getProperty("local.server.port")
+                    + "/order/create/" + productId + "?amount=" + amount;
+            Map<String, Object> report = new LinkedHashMap<>();
+            report.put("buyers", buyers);
+            report.put("requests", requests);
+            report.put("stock", stock);
+            report.put("amount", amount);
+            report.putAll(drive(url, buyers, requests));
+
+            boolean drained = broker.awaitIdle(drainTimeout);
+            report.put("drained", drained);
+            report.put("broker", broker.stats());
+            report.put("stages", stages(context.getBean(MeterRegistry.class)));
+
+            Map<String, Object> check = check(jdbcTemplate, redisTemplate, productId, stock, amount, report);
+            report.put("check", check);
+            passed = drained && (Boolean) check.get("passed");
+            report.put("passed", passed);
+
+            String json = JSON.toJSONString(report, JSONWriter.Feature.PrettyFormat);
+            System.out.println(json);
+            File reportFile = new File(reportPath);
+            if (reportFile.getParentFile() != null) {
+                reportFile.getParentFile().mkdirs();
+            }
+            Files.write(reportFile.toPath(), json.getBytes(StandardCharsets.UTF_8));
+        } finally {
+            redisServer.stop();
+        }
+        System.exit(passed ? 0 : 1);
+    }
+
+    /**
+     * 并发下单，返回 TPS、延迟分位数和各类响应数
+     */
+    private static Map<String, Object> drive(String url, int buyers, int requests) throws InterruptedException {
+        long[] latencies = new long[requests];
+        AtomicInteger issued = new AtomicInteger();
+        LongAdder created = new LongAdder();
+        LongAdder soldOut = new LongAdder();
+        LongAdder busy = new LongAdder();
+        LongAdder errors = new LongAdder();
+        CountDownLatch finished = new CountDownLatch(buyers);
+        ExecutorService executor = Executors.newFixedThreadPool(buyers);
+        long start = System.nanoTime();
+        for (int i = 0; i < buyers; i++) {
+            executor.execute(() -> {
+                try {
+                    int index;
+                    while ((index = issued.getAndIncrement()) < requests) {
+                        long requestStart = System.nanoTime();
+                        String body = post(url);
+                        latencies[index] = System.nanoTime() - requestStart;
+                        if (CREATED.equals(body)) {
+                            created.increment();
+                        } else if (SOLD_OUT.equals(body)) {
+                            soldOut.increment();
+                        } else if (BUSY.equals(body)) {
+                            busy.increment();
+                        } else {
+                            errors.increment();
+                        }
+                    }
+                } finally {
+                    finished.countDown();
+                }
+            });
+        }
+        finished.await();
+        long elapsed = System.nanoTime() - start;
+        executor.shutdown();
+
+        Arrays.sort(latencies);
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("elapsedMillis", TimeUnit.NANOSECONDS.toMillis(elapsed));
+        result.put("tps", Math.round(requests * 1_000_000_000.0 / elapsed));
+        result.put("p50Millis", percentileMillis(latencies, 0.50));
+        result.put("p99Millis", percentileMillis(latencies, 0.99));
+        result.put("p999Millis", percentileMillis(latencies, 0.999));
+        result.put("maxMillis", percentileMillis(latencies, 1.0));
+        result.put("created", created.sum());
+        result.put("soldOut", soldOut.sum());
+        result.put("busy", busy.sum());
+        result.put("errors", errors.sum());
+        return result;
+    }
+
+    /**
+     * 核对库存：订单总数不能超过初始库存，需求足够时必须卖完，MySQL、Redis 剩余库存和成功流水都要与订单一致
+     */
+    private static Map<String, Object> check(JdbcTemplate jdbcTemplate, RedisTemplate<String, Object> redisTemplate,
+                                             int productId, int stock, int amount, Map<String, Object> report) {
+        long sold = jdbcTemplate.queryForObject("SELECT COALESCE(SUM(product_num), 0) FROM `order` WHERE product_id = ?", Long.class, productId);
+        long mysqlStock = jdbcTemplate.queryForObject("SELECT stock_num FROM stock WHERE product_id = ?", Long.class, productId);
+        Object redisValue = redisTemplate.opsForValue().get(StockRedisConstant.stockKey(productId));
+        long redisStock = redisValue == null ? -1L : Long.parseLong(redisValue.toString());
+        long loggedSold = jdbcTemplate.queryForObject("SELECT COALESCE(SUM(amount), 0) FROM stock_log WHERE product_id = ? AND status = 1", Long.class, productId);
+        long pendingLogs = jdbcTemplate.queryForObject("SELECT COUNT(*) FROM stock_log WHERE product_id = ? AND status = 0", Long.class, productId);
+        // 繁忙和出错的请求没有参与抢购，剩余库存不足一次购买数量时也不算少卖
+        long demand = ((Integer) report.get("requests") - (Long) report.get("busy") - (Long) report.get("errors")) * (long) amount;
+        long expectedSold = Math.min(stock, demand) / amount * amount;
+
+        List<String> failures = new ArrayList<>();
+        if (sold > stock) {
+            failures.add("超卖：订单数量 " + sold + " 超过初始库存 " + stock);
+        }
+        if (sold < expectedSold) {
+            failures.add("少卖：订单数量 " + sold + " 少于应售出数量 " + expectedSold);
+        }
+        if (mysqlStock != stock - sold) {
+            failures.add("MySQL 剩余库存 " + mysqlStock + " 与订单不一致，应为 " + (stock - sold));
+        }
+        if (redisStock != stock - sold) {
+            failures.add("Redis 剩余库存 " + redisStock + " 与订单不一致，应为 " + (stock - sold));
+        }
+        if (loggedSold != sold) {
+            failures.add("成功流水数量 " + loggedSold + " 与订单数量 " + sold + " 不一致");
+        }
+        if (pendingLogs > 0) {
+            failures.add("仍有 " + pendingLogs + " 条初始化状态的库存流水");
+        }
+
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("sold", sold);
+        result.put("expectedSold", expectedSold);
+        result.put("mysqlStock", mysqlStock);
+        result.put("redisStock", redisStock);
+        result.put("loggedSold", loggedSold);
+        result.put("pendingLogs", pendingLogs);
+        result.put("failures", failures);
+        result.put("passed", failures.isEmpty());
+        return result;
+    }
+
+    /**
+     * 下单链路各阶段的耗时，完整的直方图见 /actuator/prometheus
+     */
+    private static Map<String, Object> stages(MeterRegistry meterRegistry) {
+        Map<String, Object> stages = new TreeMap<>();
+        meterRegistry.getMeters().stream()
+                .filter(each -> each.getId().getName().startsWith("stock."))
+                .forEach(each -> {
+                    String name = each.getId().getName() + each.getId().getTags().stream()
+                            .map(tag -> tag.getKey() + "=" + tag.getValue())
+                            .collect(Collectors.joining(",", "{", "}"));
+                    Map<String, Object> stage = new LinkedHashMap<>();
+                    if (each instanceof Timer) {
+                        Timer timer = (Timer) each;
+                        stage.put("count", timer.count());
+                        stage.put("meanMillis", Math.round(timer.mean(TimeUnit.MICROSECONDS)) / 1000D);
+                        stage.put("maxMillis", Math.round(timer.max(TimeUnit.MICROSECONDS)) / 1000D);
+                    } else if (each instanceof Counter) {
+                        stage.put("count", Math.round(((Counter) each).count()));
+                    } else {
+                        return;
+                    }
+                    stages.put(name, stage);
+                });
+        return stages;
+    }
+
+    private static String post(String url) {
+        HttpURLConnection connection = null;
+        try {
+            connection = (HttpURLConnection) new URL(url).openConnection();
+            connection.setRequestMethod("POST");
+            connection.setConnectTimeout(5000);
+            connection.setReadTimeout(30000);
+            int status = connection.getResponseCode();
+            // 读完响应体，连接才能回到 keep-alive 连接池复用
+            InputStream inputStream = status < 400 ? connection.getInputStream() : connection.getErrorStream();
+            String body = inputStream == null ? "" : read(inputStream);
+            return status == HttpURLConnection.HTTP_OK ? body : "HTTP " + status;
+        } catch (IOException e) {
+            if (connection != null) {
+                connection.disconnect();
+            }
+            return e.toString();
+        }
+    }
+
+    private static String read(InputStream inputStream) throws IOException {
+        try (InputStream in = inputStream) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[256];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            return new String(out.toByteArray(), StandardCharsets.UTF_8);
+        }
+    }
+
+    private static double percentileMillis(long[] sortedNanos, double percentile) {
+        if (sortedNanos.length == 0) {
+            return 0D;
+        }
+        int index = (int) Math.ceil(percentile * sortedNanos.length) - 1;
+        long nanos = sortedNanos[Math.max(0, Math.min(index, sortedNanos.length - 1))];
+        return Math.round(nanos / 1000D) / 1000D;
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+}
@@ -0,0 +1,27 @@
+package com.zh.stockdemo.loadtest;
+
+import org.apache.rocketmq.spring.support.RocketMQMessageConverter;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Profile;
+
+import java.time.Duration;
+
+/**
+ * 压测环境配置，RocketMQ 自动配置被排除，由进程内的 {@link LocalTransactionBroker} 代替 RocketMQTemplate
+ *
+ */
+@Configuration
+@Profile("loadtest")
+public class LoadTestConfiguration {
+
+    @Bean
+    public LocalTransactionBroker rocketMQTemplate(@Value("${loadtest.broker.consume-threads:20}") int consumeThreads,
+                                                   @Value("${loadtest.broker.check-interval:1s}") Duration checkInterval) {
+        LocalTransactionBroker broker = new LocalTransactionBroker(consumeThreads, checkInterval);
+        // 与 RocketMQAutoConfiguration 使用相同的消息转换器
+        broker.setMessageConverter(new RocketMQMessageConverter().getMessageConverter());
+        return broker;
+    }
+}
@@ -0,0 +1,336 @@
+package com.zh.stockdemo.loadtest;
+
+import com.alibaba.fastjson2.JSON;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.rocketmq.client.producer.LocalTransactionState;
+import org.apache.rocketmq.client.producer.SendCallback;
+import org.apache.rocketmq.client.producer.SendResult;
+import org.apache.rocketmq.client.producer.SendStatus;
+import org.apache.rocketmq.client.producer.TransactionSendResult;
+import org.apache.rocketmq.common.message.MessageAccessor;
+import org.apache.rocketmq.common.message.MessageClientIDSetter;
+import org.apache.rocketmq.common.message.MessageExt;
+import org.apache.rocketmq.spring.annotation.RocketMQMessageListener;
+import org.apache.rocketmq.spring.core.RocketMQListener;
+import org.apache.rocketmq.spring.core.RocketMQLocalTransactionListener;
+import org.apache.rocketmq.spring.core.RocketMQLocalTransactionState;
+import org.apache.rocketmq.spring.core.RocketMQTemplate;
+import org.apache.rocketmq.spring.support.RocketMQUtil;
+import org.springframework.aop.support.AopUtils;
+import org.springframework.beans.BeansException;
+import org.springframework.context.ApplicationContext;
+import org.springframework.context.ApplicationContextAware;
+import org.springframework.core.ResolvableType;
+import org.springframework.core.annotation.AnnotationUtils;
+import org.springframework.messaging.Message;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+import java.nio.charset.Charset;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 进程内的事务消息 Broker
+ * <p>
+ * 替换 RocketMQTemplate，压测时不需要 NameServer 和 Broker：事务消息在发送线程上同步执行
+ * {@link RocketMQLocalTransactionListener#executeLocalTransaction}，COMMIT 的消息投递给订阅了该 topic/tag 的
+ * {@link RocketMQListener}，UNKNOWN 的消息按 check-interval 回查，最多 15 次后丢弃，与 Broker 的默认行为一致。
+ * 消费失败的消息同样按 check-interval 重新投递，最多 16 次。普通消息忽略延迟级别直接投递。
+ *
+ */
+@Slf4j
+public class LocalTransactionBroker extends RocketMQTemplate implements ApplicationContextAware {
+
+    private static final int MAX_CHECK_TIMES = 15;
+
+    private static final int MAX_RECONSUME_TIMES = 16;
+
+    private final ScheduledExecutorService consumeExecutor;
+
+    private final Duration checkInterval;
+
+    /**
+     * 还没有最终结果（消费成功、回滚或放弃）的消息数
+     */
+    private final AtomicLong inFlight = new AtomicLong();
+
+    private final LongAdder committed = new LongAdder();
+
+    private final LongAdder rolledBack = new LongAdder();
+
+    private final LongAdder checked = new LongAdder();
+
+    private final LongAdder consumed = new LongAdder();
+
+    private final LongAdder reconsumed = new LongAdder();
+
+    private final LongAdder dropped = new LongAdder();
+
+    private ApplicationContext applicationContext;
+
+    private volatile RocketMQLocalTransactionListener transactionListener;
+
+    private volatile List<Subscription> subscriptions;
+
+    public LocalTransactionBroker(int consumeThreads, Duration checkInterval) {
+        this.consumeExecutor = Executors.newScheduledThreadPool(consumeThreads, new CustomizableThreadFactory("local-broker-"));
+        this.checkInterval = checkInterval;
+    }
+
+    @Override
+    public void setApplicationContext(ApplicationContext applicationContext) throws BeansException {
+        this.applicationContext = applicationContext;
+    }
+
+    @Override
+    public TransactionSendResult sendMessageInTransaction(String destination, Message<?> message, Object arg) {
+        MessageExt messageExt = toMessageExt(destination, message);
+        RocketMQLocalTransactionState state;
+        try {
+            state = getTransactionListener().executeLocalTransaction(RocketMQUtil.convertToSpringMessage(messageExt), arg);
+        } catch (Throwable e) {
+            // 与 DefaultMQProducer 一致，本地事务抛出异常按 UNKNOWN 处理，等待回查
+            log.error("执行本地事务失败，msgId：{}", messageExt.getMsgId(), e);
+            state = RocketMQLocalTransactionState.UNKNOWN;
+        }
+        inFlight.incrementAndGet();
+        endTransaction(messageExt, state, 0);
+
+        TransactionSendResult sendResult = new TransactionSendResult();
+        sendResult.setSendStatus(SendStatus.SEND_OK);
+        sendResult.setMsgId(messageExt.getMsgId());
+        sendResult.setLocalTransactionState(toLocalTransactionState(state));
+        return sendResult;
+    }
+
+    @Override
+    public SendResult syncSend(String destination, Message<?> message, long timeout, int delayLevel) {
+        MessageExt messageExt = toMessageExt(destination, message);
+        inFlight.incrementAndGet();
+        deliver(messageExt);
+        return sendOk(messageExt);
+    }
+
+    @Override
+    public <T extends Message> SendResult syncSend(String destination, Collection<T> messages, long timeout) {
+        SendResult sendResult = null;
+        for (T message : messages) {
+            sendResult = syncSend(destination, message, timeout, 0);
+        }
+        return sendResult;
+    }
+
+    @Override
+    public void asyncSend(String destination, Message<?> message, SendCallback sendCallback, long timeout, int delayLevel) {
+        SendResult sendResult = syncSend(destination, message, timeout, delayLevel);
+        if (sendCallback != null) {
+            sendCallback.onSuccess(sendResult);
+        }
+    }
+
+    @Override
+    public void sendOneWay(String destination, Message<?> message) {
+        syncSend(destination, message, 0L, 0);
+    }
+
+    /**
+     * 等待所有消息得到最终结果
+     *
+     * @return 超时前全部完成返回 true
+     */
+    public boolean awaitIdle(Duration timeout) throws InterruptedException {
+        long deadline = System.nanoTime() + timeout.toNanos();
+        while (inFlight.get() > 0) {
+            if (System.nanoTime() >= deadline) {
+                return false;
+            }
+            TimeUnit.MILLISECONDS.sleep(20L);
+        }
+        return true;
+    }
+
+    public Map<String, Long> stats() {
+        Map<String, Long> stats = new HashMap<>();
+        stats.put("committed", committed.sum());
+        stats.put("rolledBack", rolledBack.sum());
+        stats.put("checked", checked.sum());
+        stats.put("consumed", consumed.sum());
+        stats.put("reconsumed", reconsumed.sum());
+        stats.put("dropped", dropped.sum());
+        stats.put("inFlight", inFlight.get());
+        return stats;
+    }
+
+    @Override
+    public void destroy() {
+        consumeExecutor.shutdownNow();
+        super.destroy();
+    }
+
+    private void endTransaction(MessageExt messageExt, RocketMQLocalTransactionState state, int checkTimes) {
+        switch (state) {
+            case COMMIT:
+                committed.increment();
+                deliver(messageExt);
+                return;
+            case ROLLBACK:
+                rolledBack.increment();
+                inFlight.decrementAndGet();
+                return;
+            default:
+                if (checkTimes >= MAX_CHECK_TIMES) {
+                    log.warn("事务消息回查 {} 次仍未确定状态，丢弃消息，msgId：{}", checkTimes, messageExt.getMsgId());
+                    dropped.increment();
+                    inFlight.decrementAndGet();
+                    return;
+                }
+                consumeExecutor.schedule(() -> check(messageExt, checkTimes + 1), checkInterval.toMillis(), TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void check(MessageExt messageExt, int checkTimes) {
+        checked.increment();
+        RocketMQLocalTransactionState state;
+        try {
+            state = getTransactionListener().checkLocalTransaction(RocketMQUtil.convertToSpringMessage(messageExt));
+        } catch (Throwable e) {
+            log.error("事务回查失败，msgId：{}", messageExt.getMsgId(), e);
+            state = RocketMQLocalTransactionState.UNKNOWN;
+        }
+        endTransaction(messageExt, state, checkTimes);
+    }
+
+    private void deliver(MessageExt messageExt) {
+        for (Subscription subscription : getSubscriptions()) {
+            if (subscription.matches(messageExt)) {
+                inFlight.incrementAndGet();
+                consumeExecutor.execute(() -> consume(subscription, messageExt, 0));
+            }
+        }
+        inFlight.decrementAndGet();
+    }
+
+    private void consume(Subscription subscription, MessageExt messageExt, int reconsumeTimes) {
+        try {
+            messageExt.setReconsumeTimes(reconsumeTimes);
+            subscription.listener.onMessage(convert(messageExt, subscription.messageType));
+            consumed.increment();
+            inFlight.decrementAndGet();
+        } catch (Throwable e) {
+            if (reconsumeTimes >= MAX_RECONSUME_TIMES) {
+                log.error("消息重试 {} 次仍消费失败，丢弃消息，msgId：{}", reconsumeTimes, messageExt.getMsgId(), e);
+                dropped.increment();
+                inFlight.decrementAndGet();
+                return;
+            }
+            reconsumed.increment();
+            consumeExecutor.schedule(() -> consume(subscription, messageExt, reconsumeTimes + 1), checkInterval.toMillis(), TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private Object convert(MessageExt messageExt, Class<?> messageType) {
+        if (messageType.isInstance(messageExt)) {
+            return messageExt;
+        }
+        if (messageType == byte[].class) {
+            return messageExt.getBody();
+        }
+        String body = new String(messageExt.getBody(), Charset.forName(getCharset()));
+        return messageType == String.class ? body : JSON.parseObject(body, messageType);
+    }
+
+    private MessageExt toMessageExt(String destination, Message<?> message) {
+        org.apache.rocketmq.common.message.Message rocketMessage = RocketMQUtil.convertToRocketMessage(getMessageConverter(), getCharset(), destination, message);
+        MessageClientIDSetter.setUniqID(rocketMessage);
+        MessageExt messageExt = new MessageExt();
+        messageExt.setTopic(rocketMessage.getTopic());
+        messageExt.setFlag(rocketMessage.getFlag());
+        messageExt.setBody(rocketMessage.getBody());
+        MessageAccessor.setProperties(messageExt, new HashMap<>(rocketMessage.getProperties()));
+        messageExt.setMsgId(MessageClientIDSetter.getUniqID(rocketMessage));
+        messageExt.setBornTimestamp(System.currentTimeMillis());
+        messageExt.setStoreTimestamp(messageExt.getBornTimestamp());
+        return messageExt;
+    }
+
+    private RocketMQLocalTransactionListener getTransactionListener() {
+        if (transactionListener == null) {
+            transactionListener = applicationContext.getBean(RocketMQLocalTransactionListener.class);
+        }
+        return transactionListener;
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<Subscription> getSubscriptions() {
+        if (subscriptions == null) {
+            List<Subscription> result = new ArrayList<>();
+            applicationContext.getBeansWithAnnotation(RocketMQMessageListener.class).values().forEach(each -> {
+                if (!(each instanceof RocketMQListener)) {
+                    return;
+                }
+                Class<?> targetClass = AopUtils.getTargetClass(each);
+                RocketMQMessageListener annotation = AnnotationUtils.findAnnotation(targetClass, RocketMQMessageListener.class);
+                Class<?> messageType = ResolvableType.forClass(targetClass).as(RocketMQListener.class).resolveGeneric(0);
+                result.add(new Subscription((RocketMQListener<Object>) each,
+                        applicationContext.getEnvironment().resolvePlaceholders(annotation.topic()),
+                        applicationContext.getEnvironment().resolvePlaceholders(annotation.selectorExpression()),
+                        messageType == null ? MessageExt.class : messageType));
+            });
+            subscriptions = result;
+        }
+        return subscriptions;
+    }
+
+    private SendResult sendOk(MessageExt messageExt) {
+        SendResult sendResult = new SendResult();
+        sendResult.setSendStatus(SendStatus.SEND_OK);
+        sendResult.setMsgId(messageExt.getMsgId());
+        return sendResult;
+    }
+
+    private LocalTransactionState toLocalTransactionState(RocketMQLocalTransactionState state) {
+        switch (state) {
+            case COMMIT:
+                return LocalTransactionState.COMMIT_MESSAGE;
+            case ROLLBACK:
+                return LocalTransactionState.ROLLBACK_MESSAGE;
+            default:
+                return LocalTransactionState.UNKNOW;
+        }
+    }
+
+    private static class Subscription {
+
+        private final RocketMQListener<Object> listener;
+
+        private final String topic;
+
+        /**
+         * 订阅的 tag，"*" 表示全部
+         */
+        private final List<String> tags;
+
+        private final Class<?> messageType;
+
+        private Subscription(RocketMQListener<Object> listener, String topic, String selectorExpression, Class<?> messageType) {
+            this.listener = listener;
+            this.topic = topic;
+            this.tags = Arrays.asList(selectorExpression.split("\\s*\\|\\|\\s*"));
+            this.messageType = messageType;
+        }
+
+        private boolean matches(MessageExt messageExt) {
+            return topic.equals(messageExt.getTopic()) && (tags.contains("*") || tags.contains(messageExt.getTags()));
+        }
+    }
+}
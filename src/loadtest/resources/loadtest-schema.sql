@@ -0,0 +1,34 @@
+-- 与 README 中的表结构一致，去掉了 H2 不支持的 MySQL 表选项
+CREATE TABLE IF NOT EXISTS `order` (
+  `id` int NOT NULL AUTO_INCREMENT,
+  `product_id` int DEFAULT NULL,
+  `product_num` int DEFAULT NULL,
+  PRIMARY KEY (`id`)
+);
+CREATE INDEX IF NOT EXISTS `order_product_id_index` ON `order` (`product_id`);
+
+CREATE TABLE IF NOT EXISTS `stock` (
+  `id` int NOT NULL AUTO_INCREMENT,
+  `product_id` int DEFAULT NULL,
+  `product_name` varchar(255) DEFAULT NULL,
+  `stock_num` int DEFAULT NULL,
+  PRIMARY KEY (`id`),
+  UNIQUE KEY `stock_product_id_index` (`product_id`)
+);
+
+CREATE TABLE IF NOT EXISTS `stock_log` (
+  `id` int NOT NULL AUTO_INCREMENT,
+  `product_id` int DEFAULT NULL,
+  `amount` int DEFAULT NULL,
+  `status` int DEFAULT NULL,
+  `items` varchar(2048) DEFAULT NULL,
+  PRIMARY KEY (`id`)
+);
+CREATE INDEX IF NOT EXISTS `stock_log_product_id_index` ON `stock_log` (`product_id`);
+
+CREATE TABLE IF NOT EXISTS `id_segment` (
+  `biz_tag` varchar(64) NOT NULL,
+  `max_id` bigint NOT NULL,
+  `step` int NOT NULL,
+  PRIMARY KEY (`biz_tag`)
+);
@@ -3,9 +3,11 @@ package com.zh.stockdemo;
 import org.mybatis.spring.annotation.MapperScan;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.scheduling.annotation.EnableScheduling;
 
 @SpringBootApplication
 @MapperScan("com.zh.stockdemo.mapper")
+@EnableScheduling
 public class StockDemoApplication {
 
     public static void main(String[] args) {
@@ -0,0 +1,23 @@
+package com.zh.stockdemo.admission;
+
+/**
+ * 下单准入结果
+ *
+ */
+public enum AdmissionResult {
+
+    /**
+     * 准入，需要在请求结束时释放
+     */
+    ADMITTED,
+
+    /**
+     * 并发已满或本周期令牌已用完，稍后重试可能成功
+     */
+    BUSY,
+
+    /**
+     * 库存已售罄
+     */
+    SOLD_OUT
+}
@@ -0,0 +1,222 @@
+package com.zh.stockdemo.admission;
+
+import com.zh.stockdemo.cache.StockLeaseManager;
+import com.zh.stockdemo.config.StockProperties;
+import com.zh.stockdemo.constant.StockRedisConstant;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 下单准入控制
+ * <p>
+ * 在创建库存流水、发送事务消息之前按商品发放令牌：每个商品每 refresh-interval 读取一次剩余库存（Redis 库存加本节点租借库存），
+ * 令牌数重置为 剩余库存 * over-admit-factor / node-count，周期内令牌用完的请求直接返回繁忙，剩余库存为 0 时直接返回售罄。
+ * 被准入但最终失败的请求不归还令牌，下个周期按最新库存重新计算，因此下游只会收到与剩余库存同一数量级的请求。
+ * <p>
+ * 另有全局并发上限，同一时间在处理中的下单请求超过 max-concurrent 时直接返回繁忙。
+ * 拒绝只涉及本地原子操作，不访问 Redis、MySQL 或 RocketMQ。
+ *
+ */
+@Slf4j
+@Component
+public class StockAdmissionGate {
+
+    private static final long UNLIMITED = Long.MAX_VALUE / 2;
+
+    private final RedisTemplate redisTemplate;
+
+    private final StockProperties stockProperties;
+
+    private final StockLeaseManager stockLeaseManager;
+
+    private final Semaphore concurrency;
+
+    private final ConcurrentHashMap<Integer, ProductPermit> permits = new ConcurrentHashMap<>();
+
+    public StockAdmissionGate(RedisTemplate redisTemplate, StockProperties stockProperties, StockLeaseManager stockLeaseManager) {
+        this.redisTemplate = redisTemplate;
+        this.stockProperties = stockProperties;
+        this.stockLeaseManager = stockLeaseManager;
+        this.concurrency = new Semaphore(stockProperties.getAdmission().getMaxConcurrent());
+    }
+
+    /**
+     * 尝试准入一次下单，返回 ADMITTED 时必须在请求结束时调用 {@link #release()}
+     */
+    public AdmissionResult tryAcquire(Integer productId, int amount) {
+        if (!stockProperties.getAdmission().isEnabled()) {
+            return AdmissionResult.ADMITTED;
+        }
+        ProductPermit permit = permit(productId);
+        if (permit.soldOut) {
+            return AdmissionResult.SOLD_OUT;
+        }
+        if (permit.tokens.addAndGet(-amount) < 0) {
+            return AdmissionResult.BUSY;
+        }
+        if (!concurrency.tryAcquire()) {
+            permit.tokens.addAndGet(amount);
+            return AdmissionResult.BUSY;
+        }
+        return AdmissionResult.ADMITTED;
+    }
+
+    /**
+     * 尝试准入一次购物车结算，每个商品按购买数量扣减令牌，整个购物车只占用一个并发数；
+     * 任一商品被拒绝时归还其他商品已扣减的令牌。返回 ADMITTED 时必须在请求结束时调用 {@link #release()}
+     *
+     * @param quantities productId -> 购买数量
+     */
+    public AdmissionResult tryAcquireAll(Map<Integer, Integer> quantities) {
+        if (!stockProperties.getAdmission().isEnabled()) {
+            return AdmissionResult.ADMITTED;
+        }
+        Map<ProductPermit, Integer> taken = new HashMap<>(quantities.size() * 2);
+        AdmissionResult result = AdmissionResult.ADMITTED;
+        for (Map.Entry<Integer, Integer> entry : quantities.entrySet()) {
+            ProductPermit permit = permit(entry.getKey());
+            if (permit.soldOut) {
+                result = AdmissionResult.SOLD_OUT;
+                break;
+            }
+            if (permit.tokens.addAndGet(-entry.getValue()) < 0) {
+                result = AdmissionResult.BUSY;
+                break;
+            }
+            taken.put(permit, entry.getValue());
+        }
+        if (result == AdmissionResult.ADMITTED && !concurrency.tryAcquire()) {
+            result = AdmissionResult.BUSY;
+        }
+        if (result != AdmissionResult.ADMITTED) {
+            taken.forEach((permit, amount) -> permit.tokens.addAndGet(amount));
+        }
+        return result;
+    }
+
+    /**
+     * 释放准入时占用的并发数
+     */
+    public void release() {
+        if (stockProperties.getAdmission().isEnabled()) {
+            concurrency.release();
+        }
+    }
+
+    /**
+     * 清理长时间没有请求的商品
+     */
+    @Scheduled(fixedDelay = 1000L)
+    public void removeIdlePermits() {
+        long idleBefore = System.currentTimeMillis() - stockProperties.getAdmission().getIdleTimeout().toMillis();
+        permits.values().removeIf(each -> each.lastAccessTime < idleBefore);
+    }
+
+    private ProductPermit permit(Integer productId) {
+        ProductPermit permit = permits.computeIfAbsent(productId, key -> new ProductPermit());
+        long now = System.currentTimeMillis();
+        permit.lastAccessTime = now;
+        permit.refreshIfNeeded(productId, now);
+        return permit;
+    }
+
+    /**
+     * 本周期的令牌数，Redis 中没有库存时不限制，由扣减脚本返回库存不存在
+     */
+    private long computeTokens(Integer productId) {
+        Long remaining = readRemainingStock(productId);
+        if (remaining == null) {
+            return UNLIMITED;
+        }
+        remaining += stockLeaseManager.getLocalStock(productId);
+        if (remaining <= 0) {
+            return 0L;
+        }
+        StockProperties.Admission admission = stockProperties.getAdmission();
+        double tokens = Math.ceil(remaining * admission.getOverAdmitFactor() / Math.max(admission.getNodeCount(), 1));
+        return Math.max((long) tokens, 1L);
+    }
+
+    @SuppressWarnings("unchecked")
+    private Long readRemainingStock(Integer productId) {
+        StockProperties.Segment segment = stockProperties.getSegment();
+        List<String> keys;
+        if (segment.isSegmented(productId)) {
+            keys = new ArrayList<>(segment.getCount());
+            for (int i = 0; i < segment.getCount(); i++) {
+                keys.add(StockRedisConstant.stockSegmentKey(productId, i));
+            }
+        } else {
+            keys = Collections.singletonList(StockRedisConstant.stockKey(productId));
+        }
+        List<Object> values = redisTemplate.opsForValue().multiGet(keys);
+        Long sum = null;
+        for (Object value : values) {
+            if (value != null) {
+                sum = (sum == null ? 0L : sum) + Long.parseLong(value.toString());
+            }
+        }
+        return sum;
+    }
+
+    private class ProductPermit {
+
+        /**
+         * 本周期剩余令牌，允许被并发扣成负数，下次刷新时重置
+         */
+        private final AtomicLong tokens = new AtomicLong();
+
+        /**
+         * 下次刷新时间，CAS 成功的线程负责刷新
+         */
+        private final AtomicLong nextRefreshAt = new AtomicLong();
+
+        private volatile boolean initialized;
+
+        private volatile boolean soldOut;
+
+        private volatile long lastAccessTime;
+
+        private void refreshIfNeeded(Integer productId, long now) {
+            if (!initialized) {
+                // 第一次访问时同步读取库存，避免初始化完成前的请求全部被拒绝或全部放行
+                synchronized (this) {
+                    if (!initialized) {
+                        refresh(productId, now);
+                        initialized = true;
+                    }
+                }
+                return;
+            }
+            long refreshAt = nextRefreshAt.get();
+            if (now >= refreshAt && nextRefreshAt.compareAndSet(refreshAt, now + stockProperties.getAdmission().getRefreshInterval().toMillis())) {
+                refresh(productId, now);
+            }
+        }
+
+        private void refresh(Integer productId, long now) {
+            nextRefreshAt.set(now + stockProperties.getAdmission().getRefreshInterval().toMillis());
+            try {
+                long newTokens = computeTokens(productId);
+                soldOut = newTokens == 0L;
+                tokens.set(newTokens);
+            } catch (Exception e) {
+                // Redis 不可用时放行，由下游扣减决定结果
+                log.warn("准入令牌刷新失败，productId：{}", productId, e);
+                soldOut = false;
+                tokens.set(UNLIMITED);
+            }
+        }
+    }
+}
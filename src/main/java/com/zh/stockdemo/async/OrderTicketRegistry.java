@@ -0,0 +1,57 @@
+package com.zh.stockdemo.async;
+
+import com.zh.stockdemo.dto.OrderTicketDTO;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Component;
+import org.springframework.web.context.request.async.DeferredResult;
+
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * 异步下单凭证等待表
+ * <p>
+ * 查询凭证的请求在本地事务出结果前挂起在这里，不占用 Tomcat 线程；
+ * 本地事务执行完成、库存流水状态确定后唤醒所有等待该凭证的请求。
+ *
+ */
+@Component
+public class OrderTicketRegistry {
+
+    /**
+     * 凭证 -> 等待结果的请求
+     */
+    private final Map<Integer, Queue<DeferredResult<ResponseEntity<OrderTicketDTO>>>> waiters = new ConcurrentHashMap<>();
+
+    /**
+     * 挂起查询请求，完成或超时后自动移除
+     */
+    public void await(Integer ticket, DeferredResult<ResponseEntity<OrderTicketDTO>> deferredResult) {
+        waiters.computeIfAbsent(ticket, key -> new ConcurrentLinkedQueue<>()).add(deferredResult);
+        deferredResult.onCompletion(() -> waiters.computeIfPresent(ticket, (key, queue) -> {
+            queue.remove(deferredResult);
+            return queue.isEmpty() ? null : queue;
+        }));
+    }
+
+    /**
+     * 库存流水状态确定后唤醒等待的请求
+     *
+     * @param ticket 凭证，即库存流水id
+     * @param status 库存流水状态
+     */
+    public void complete(Integer ticket, Integer status) {
+        Queue<DeferredResult<ResponseEntity<OrderTicketDTO>>> queue = waiters.remove(ticket);
+        if (queue == null) {
+            return;
+        }
+        OrderTicketDTO orderTicket = OrderTicketDTO.builder()
+                .ticket(ticket)
+                .status(status)
+                .build();
+        queue.forEach(each -> each.setResult(new ResponseEntity<>(orderTicket, HttpStatus.OK)));
+    }
+}
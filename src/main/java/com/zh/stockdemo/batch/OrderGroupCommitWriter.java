@@ -0,0 +1,224 @@
+package com.zh.stockdemo.batch;
+
+import com.baomidou.mybatisplus.core.incrementer.IdentifierGenerator;
+import com.zh.stockdemo.config.StockProperties;
+import com.zh.stockdemo.entity.Order;
+import com.zh.stockdemo.entity.StockLog;
+import com.zh.stockdemo.mapper.OrderMapper;
+import com.zh.stockdemo.mapper.StockLogMapper;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+/**
+ * 订单组提交写入器
+ * <p>
+ * 收集几毫秒内并发的下单请求，在一个事务内批量插入订单、批量修改库存流水状态后统一提交，
+ * 原本每单一次事务的 4 次数据库往返合并为每批 3 次。批量提交失败时逐单重试，每个调用方都能拿到自己订单的结果。
+ *
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class OrderGroupCommitWriter implements InitializingBean, DisposableBean {
+
+    private final OrderMapper orderMapper;
+
+    private final StockLogMapper stockLogMapper;
+
+    private final TransactionTemplate transactionTemplate;
+
+    private final StockProperties stockProperties;
+
+    private final IdentifierGenerator identifierGenerator;
+
+    private BlockingQueue<OrderWriteRequest> queue;
+
+    private Thread flushThread;
+
+    private volatile boolean running;
+
+    @Override
+    public void afterPropertiesSet() {
+        if (!stockProperties.getGroupCommit().isEnabled()) {
+            return;
+        }
+        queue = new ArrayBlockingQueue<>(stockProperties.getGroupCommit().getQueueCapacity());
+        running = true;
+        flushThread = new Thread(this::flushLoop, "order-group-commit");
+        flushThread.setDaemon(true);
+        flushThread.start();
+    }
+
+    @Override
+    public void destroy() throws InterruptedException {
+        if (flushThread == null) {
+            return;
+        }
+        running = false;
+        flushThread.interrupt();
+        flushThread.join(stockProperties.getGroupCommit().getTimeout().toMillis());
+    }
+
+    /**
+     * 提交订单并等待所在批次的事务结果
+     *
+     * @param productId  产品id
+     * @param stockLogId 库存流水id
+     * @param amount     购买数量
+     */
+    public void write(Integer productId, Integer stockLogId, Integer amount) {
+        OrderWriteRequest request = new OrderWriteRequest(productId, stockLogId, amount);
+        if (!running || !queue.offer(request)) {
+            throw new RuntimeException("订单提交队列已满");
+        }
+        try {
+            try {
+                request.future.get(stockProperties.getGroupCommit().getTimeout().toMillis(), TimeUnit.MILLISECONDS);
+            } catch (TimeoutException e) {
+                // 还未被批次取走时直接取消；已经在写入中则必须等待真实结果，避免订单已落库却补偿了Redis库存
+                if (request.state.compareAndSet(OrderWriteRequest.PENDING, OrderWriteRequest.CANCELLED)) {
+                    throw new RuntimeException("订单提交超时");
+                }
+                request.future.get();
+            }
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new RuntimeException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("订单提交被中断", e);
+        }
+    }
+
+    private void flushLoop() {
+        while (running || !queue.isEmpty()) {
+            try {
+                List<OrderWriteRequest> batch = drainBatch();
+                if (!batch.isEmpty()) {
+                    flush(batch);
+                }
+            } catch (InterruptedException e) {
+                if (!running) {
+                    break;
+                }
+            } catch (Exception e) {
+                log.error("订单组提交异常", e);
+            }
+        }
+        // 停止后仍未处理的请求直接失败
+        OrderWriteRequest request;
+        while ((request = queue.poll()) != null) {
+            request.future.completeExceptionally(new RuntimeException("订单提交已停止"));
+        }
+    }
+
+    private List<OrderWriteRequest> drainBatch() throws InterruptedException {
+        List<OrderWriteRequest> batch = new ArrayList<>();
+        OrderWriteRequest first = queue.poll(100, TimeUnit.MILLISECONDS);
+        if (first == null) {
+            return batch;
+        }
+        StockProperties.GroupCommit groupCommit = stockProperties.getGroupCommit();
+        long deadline = System.nanoTime() + groupCommit.getWindow().toNanos();
+        OrderWriteRequest request = first;
+        while (request != null) {
+            if (request.state.compareAndSet(OrderWriteRequest.PENDING, OrderWriteRequest.TAKEN)) {
+                batch.add(request);
+            }
+            long remaining = deadline - System.nanoTime();
+            if (batch.size() >= groupCommit.getMaxBatchSize() || remaining <= 0) {
+                break;
+            }
+            request = queue.poll(remaining, TimeUnit.NANOSECONDS);
+        }
+        return batch;
+    }
+
+    private void flush(List<OrderWriteRequest> batch) {
+        try {
+            transactionTemplate.executeWithoutResult(status -> writeBatch(batch));
+            batch.forEach(each -> each.future.complete(null));
+        } catch (Exception e) {
+            if (batch.size() == 1) {
+                batch.get(0).future.completeExceptionally(e);
+                return;
+            }
+            log.warn("订单批量提交失败，逐单重试，批次大小：{}", batch.size(), e);
+            for (OrderWriteRequest request : batch) {
+                try {
+                    transactionTemplate.executeWithoutResult(status -> writeBatch(Collections.singletonList(request)));
+                    request.future.complete(null);
+                } catch (Exception ex) {
+                    request.future.completeExceptionally(ex);
+                }
+            }
+        }
+    }
+
+    /**
+     * 在当前事务内写入一批订单，异步写入还未落库的库存流水直接写入完整的行，因此不会出现流水不存在的情况
+     */
+    private void writeBatch(List<OrderWriteRequest> batch) {
+        List<Order> orders = batch.stream()
+                .map(each -> Order.builder()
+                        .productId(each.productId)
+                        .productNum(each.amount)
+                        .build())
+                .collect(Collectors.toList());
+        // 批量插入不经过 MyBatis-Plus 主键填充，预先分配id
+        orders.forEach(each -> each.setId(identifierGenerator.nextId(each).intValue()));
+        orderMapper.insertBatch(orders);
+        List<StockLog> stockLogs = batch.stream()
+                .map(each -> StockLog.builder()
+                        .id(each.stockLogId)
+                        .productId(each.productId)
+                        .amount(each.amount)
+                        .status(1)
+                        .build())
+                .collect(Collectors.toList());
+        stockLogMapper.upsertStatusBatch(stockLogs);
+    }
+
+    private static class OrderWriteRequest {
+
+        private static final int PENDING = 0;
+
+        private static final int TAKEN = 1;
+
+        private static final int CANCELLED = 2;
+
+        private final Integer productId;
+
+        private final Integer stockLogId;
+
+        private final Integer amount;
+
+        private final AtomicInteger state = new AtomicInteger(PENDING);
+
+        private final CompletableFuture<Void> future = new CompletableFuture<>();
+
+        private OrderWriteRequest(Integer productId, Integer stockLogId, Integer amount) {
+            this.productId = productId;
+            this.stockLogId = stockLogId;
+            this.amount = amount;
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package com.zh.stockdemo.batch;
+
+import com.zh.stockdemo.config.StockProperties;
+import com.zh.stockdemo.constant.StockRedisConstant;
+import com.zh.stockdemo.redis.RedisScriptRegistry;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Redis 库存扣减合并器
+ * <p>
+ * 同一商品的并发扣减请求进入该商品的队列，CAS 抢到领头的请求等待 window 收集同批请求，
+ * 再用一次 Lua 调用按到达顺序依次判断每个请求，最后一次 DECRBY 扣减总数，各请求的结果与逐个扣减完全相同。
+ * 不需要额外线程：领头请求处理完一批后交还领头，仍在等待的请求在下一个 window 内重新争抢领头，
+ * 热点商品每秒的 Redis 调用次数约降为原来的 1/批大小。
+ *
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class StockDecreaseCoalescer {
+
+    private final RedisScriptRegistry redisScriptRegistry;
+
+    private final StockProperties stockProperties;
+
+    private final ConcurrentHashMap<Integer, ProductQueue> queues = new ConcurrentHashMap<>();
+
+    /**
+     * 合并扣减一个未分段商品的 Redis 库存
+     *
+     * @return 1->扣减成功，0->库存售罄，-1->库存不存在，-2->库存不足本次扣减数量，-3->扣减数量不合法
+     */
+    public Long decreaseStock(Integer productId, Integer amount) {
+        StockProperties.Coalesce coalesce = stockProperties.getCoalesce();
+        ProductQueue queue = queues.computeIfAbsent(productId, key -> new ProductQueue());
+        queue.lastAccessTime = System.currentTimeMillis();
+        DecreaseRequest request = new DecreaseRequest(amount);
+        queue.pending.offer(request);
+
+        long deadline = System.nanoTime() + coalesce.getTimeout().toNanos();
+        long waitNanos = Math.max(coalesce.getWindow().toNanos(), TimeUnit.MICROSECONDS.toNanos(100));
+        while (!request.result.isDone()) {
+            if (queue.leading.compareAndSet(false, true)) {
+                try {
+                    lead(productId, queue);
+                } finally {
+                    queue.leading.set(false);
+                }
+                continue;
+            }
+            // 只有还在队列中、确定未被扣减的请求才能超时返回，已被领头取走的请求继续等待结果
+            if (System.nanoTime() >= deadline && queue.pending.remove(request)) {
+                throw new RuntimeException("库存扣减合并等待超时");
+            }
+            try {
+                return request.result.get(waitNanos, TimeUnit.NANOSECONDS);
+            } catch (TimeoutException e) {
+                // 领头请求可能已经交还领头，重新争抢
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("库存扣减合并等待被中断", e);
+            } catch (ExecutionException e) {
+                throw new RuntimeException("库存扣减失败", e.getCause());
+            }
+        }
+        return request.result.join();
+    }
+
+    /**
+     * 清理长时间没有请求的商品队列
+     */
+    @Scheduled(fixedDelay = 1000L)
+    public void removeIdleQueues() {
+        long idleBefore = System.currentTimeMillis() - stockProperties.getCoalesce().getIdleTimeout().toMillis();
+        queues.entrySet().removeIf(each -> each.getValue().lastAccessTime < idleBefore && each.getValue().pending.isEmpty());
+    }
+
+    private void lead(Integer productId, ProductQueue queue) {
+        StockProperties.Coalesce coalesce = stockProperties.getCoalesce();
+        long windowNanos = coalesce.getWindow().toNanos();
+        if (windowNanos > 0) {
+            LockSupport.parkNanos(windowNanos);
+        }
+        List<DecreaseRequest> batch = new ArrayList<>();
+        DecreaseRequest request;
+        while (batch.size() < coalesce.getMaxBatchSize() && (request = queue.pending.poll()) != null) {
+            batch.add(request);
+        }
+        if (batch.isEmpty()) {
+            return;
+        }
+        try {
+            Object[] amounts = batch.stream().map(each -> each.amount).toArray();
+            List<Long> results = redisScriptRegistry.execute(StockRedisConstant.LUA_DECREASE_STOCK_BATCH, List.class,
+                    Arrays.asList(StockRedisConstant.stockKey(productId), StockRedisConstant.stockInvalidKey(productId),
+                            StockRedisConstant.stockLeaseKey(productId)),
+                    amounts);
+            for (int i = 0; i < batch.size(); i++) {
+                batch.get(i).result.complete(results.get(i));
+            }
+        } catch (Exception e) {
+            log.error("合并扣减库存失败，productId：{}，请求数：{}", productId, batch.size(), e);
+            batch.forEach(each -> each.result.completeExceptionally(e));
+        }
+    }
+
+    private static class ProductQueue {
+
+        private final ConcurrentLinkedQueue<DecreaseRequest> pending = new ConcurrentLinkedQueue<>();
+
+        /**
+         * 是否已有请求在领头
+         */
+        private final AtomicBoolean leading = new AtomicBoolean();
+
+        private volatile long lastAccessTime;
+    }
+
+    private static class DecreaseRequest {
+
+        private final Integer amount;
+
+        private final CompletableFuture<Long> result = new CompletableFuture<>();
+
+        private DecreaseRequest(Integer amount) {
+            this.amount = amount;
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package com.zh.stockdemo.batch;
+
+import com.zh.stockdemo.config.StockProperties;
+import com.zh.stockdemo.entity.StockLog;
+import com.zh.stockdemo.mapper.StockLogMapper;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 库存流水异步写入器
+ * <p>
+ * 下单请求只把预分配id的库存流水放入队列，由后台线程攒批后 INSERT IGNORE 批量写入，请求线程不再等待数据库。
+ * 这里的写入只为尽快让库存流水可查，不承担持久化保证：事务消息的本地事务会以 upsert 写入带最终状态的完整流水，
+ * 消息未发送成功时回滚凭证也会补写流水，因此即使进程在写入前退出，流水也不会丢失。
+ *
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class StockLogWriteBehindWriter implements InitializingBean, DisposableBean {
+
+    private final StockLogMapper stockLogMapper;
+
+    private final StockProperties stockProperties;
+
+    private BlockingQueue<StockLog> queue;
+
+    private Thread flushThread;
+
+    private volatile boolean running;
+
+    @Override
+    public void afterPropertiesSet() {
+        if (!stockProperties.getWriteBehind().isEnabled()) {
+            return;
+        }
+        queue = new ArrayBlockingQueue<>(stockProperties.getWriteBehind().getQueueCapacity());
+        running = true;
+        flushThread = new Thread(this::flushLoop, "stock-log-write-behind");
+        flushThread.setDaemon(true);
+        flushThread.start();
+    }
+
+    @Override
+    public void destroy() throws InterruptedException {
+        if (flushThread == null) {
+            return;
+        }
+        running = false;
+        flushThread.interrupt();
+        flushThread.join(TimeUnit.SECONDS.toMillis(5));
+    }
+
+    /**
+     * 追加一条库存流水，队列满或写入器未运行时同步写入
+     */
+    public void append(StockLog stockLog) {
+        if (running && queue.offer(stockLog)) {
+            return;
+        }
+        stockLogMapper.insertIgnoreBatch(Collections.singletonList(stockLog));
+    }
+
+    private void flushLoop() {
+        while (running || !queue.isEmpty()) {
+            try {
+                List<StockLog> batch = drainBatch();
+                if (!batch.isEmpty()) {
+                    flush(batch);
+                }
+            } catch (InterruptedException e) {
+                if (!running) {
+                    break;
+                }
+            } catch (Exception e) {
+                log.error("库存流水异步写入异常", e);
+            }
+        }
+        // 停止前把剩余的流水写完
+        List<StockLog> remaining = new ArrayList<>();
+        queue.drainTo(remaining);
+        if (!remaining.isEmpty()) {
+            flush(remaining);
+        }
+    }
+
+    private List<StockLog> drainBatch() throws InterruptedException {
+        List<StockLog> batch = new ArrayList<>();
+        StockLog first = queue.poll(100, TimeUnit.MILLISECONDS);
+        if (first == null) {
+            return batch;
+        }
+        StockProperties.WriteBehind writeBehind = stockProperties.getWriteBehind();
+        long deadline = System.nanoTime() + writeBehind.getWindow().toNanos();
+        StockLog stockLog = first;
+        while (stockLog != null) {
+            batch.add(stockLog);
+            long remaining = deadline - System.nanoTime();
+            if (batch.size() >= writeBehind.getMaxBatchSize() || remaining <= 0) {
+                break;
+            }
+            stockLog = queue.poll(remaining, TimeUnit.NANOSECONDS);
+        }
+        return batch;
+    }
+
+    private void flush(List<StockLog> batch) {
+        try {
+            stockLogMapper.insertIgnoreBatch(batch);
+        } catch (Exception e) {
+            log.warn("库存流水批量写入失败，逐条重试，批次大小：{}", batch.size(), e);
+            for (StockLog stockLog : batch) {
+                try {
+                    stockLogMapper.insertIgnoreBatch(Collections.singletonList(stockLog));
+                } catch (Exception ex) {
+                    // 本地事务或回滚凭证会补写该流水
+                    log.error("库存流水写入失败，stockLogId：{}", stockLog.getId(), ex);
+                }
+            }
+        }
+    }
+}
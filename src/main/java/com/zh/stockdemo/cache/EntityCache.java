@@ -0,0 +1,184 @@
+package com.zh.stockdemo.cache;
+
+import com.alibaba.fastjson2.JSON;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import com.zh.stockdemo.config.StockProperties;
+import com.zh.stockdemo.constant.StockRedisConstant;
+import com.zh.stockdemo.dto.EntityCacheStatsDTO;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.connection.RedisStringCommands;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.types.Expiration;
+import org.springframework.data.redis.serializer.StringRedisSerializer;
+
+import java.io.Serializable;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * 按id读穿的实体缓存
+ * <p>
+ * 本地一级缓存使用 Caffeine（W-TinyLFU 淘汰），可选 Redis 二级缓存，都未命中时由调用方回源数据库。
+ * 只缓存满足 cacheable 的实体，还会变化的实体每次都回源；不存在的实体不缓存，异步写入的记录落库后即可读到。
+ * 失效时删除本节点和 Redis 中的缓存，并通过 Redis 发布订阅通知其他节点删除本地缓存。
+ *
+ */
+@Slf4j
+public class EntityCache<T> {
+
+    private final String name;
+
+    private final Class<T> type;
+
+    private final Predicate<T> cacheable;
+
+    private final RedisTemplate redisTemplate;
+
+    private final StockProperties.EntityCache properties;
+
+    private final Cache<Integer, T> localCache;
+
+    private final LongAdder redisHits = new LongAdder();
+
+    private final LongAdder redisMisses = new LongAdder();
+
+    private final LongAdder invalidations = new LongAdder();
+
+    EntityCache(String name, Class<T> type, Predicate<T> cacheable, RedisTemplate redisTemplate, StockProperties.EntityCache properties) {
+        this.name = name;
+        this.type = type;
+        this.cacheable = cacheable;
+        this.redisTemplate = redisTemplate;
+        this.properties = properties;
+        this.localCache = Caffeine.newBuilder()
+                .maximumSize(properties.getLocalMaxSize())
+                .expireAfterWrite(properties.getLocalTtl())
+                .recordStats()
+                .build();
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * 按id查询，未命中时调用 loader 回源
+     */
+    public T get(Integer id, Function<Integer, T> loader) {
+        if (!properties.isEnabled() || id == null) {
+            return loader.apply(id);
+        }
+        T entity = localCache.getIfPresent(id);
+        if (entity != null) {
+            return entity;
+        }
+        if (properties.isRedisEnabled()) {
+            entity = getFromRedis(id);
+            if (entity != null) {
+                localCache.put(id, entity);
+                return entity;
+            }
+        }
+        entity = loader.apply(id);
+        if (entity != null && cacheable.test(entity)) {
+            localCache.put(id, entity);
+            if (properties.isRedisEnabled()) {
+                putToRedis(id, entity);
+            }
+        }
+        return entity;
+    }
+
+    /**
+     * 使缓存失效，应在更新、删除的事务提交后调用
+     */
+    public void evict(Integer id) {
+        if (id == null) {
+            return;
+        }
+        evictLocal(id);
+        try {
+            if (properties.isRedisEnabled()) {
+                redisTemplate.delete(redisKey(id));
+            }
+            redisTemplate.convertAndSend(StockRedisConstant.ENTITY_CACHE_EVICT_CHANNEL, name + ":" + id);
+        } catch (Exception e) {
+            // 通知失败时其他节点的本地缓存最迟在 local-ttl 后过期
+            log.warn("实体缓存失效通知失败，name：{}，id：{}", name, id, e);
+        }
+    }
+
+    /**
+     * 只删除本节点的本地缓存
+     */
+    public void evictLocal(Integer id) {
+        localCache.invalidate(id);
+        invalidations.increment();
+    }
+
+    public EntityCacheStatsDTO stats() {
+        CacheStats stats = localCache.stats();
+        return EntityCacheStatsDTO.builder()
+                .name(name)
+                .localSize(localCache.estimatedSize())
+                .localHits(stats.hitCount())
+                .localMisses(stats.missCount())
+                .localHitRate(stats.hitRate())
+                .localEvictions(stats.evictionCount())
+                .redisHits(redisHits.sum())
+                .redisMisses(redisMisses.sum())
+                .invalidations(invalidations.sum())
+                .build();
+    }
+
+    private T getFromRedis(Integer id) {
+        try {
+            byte[] value = (byte[]) redisTemplate.execute((RedisCallback<byte[]>) connection ->
+                    connection.stringCommands().get(StringRedisSerializer.UTF_8.serialize(redisKey(id))));
+            if (value == null) {
+                redisMisses.increment();
+                return null;
+            }
+            redisHits.increment();
+            return JSON.parseObject(value, type);
+        } catch (Exception e) {
+            // Redis 不可用时直接回源
+            log.warn("读取实体缓存失败，name：{}，id：{}", name, id, e);
+            return null;
+        }
+    }
+
+    private void putToRedis(Integer id, T entity) {
+        try {
+            redisTemplate.execute((RedisCallback<Object>) connection -> connection.stringCommands().set(
+                    StringRedisSerializer.UTF_8.serialize(redisKey(id)),
+                    JSON.toJSONBytes(entity),
+                    Expiration.from(properties.getRedisTtl()),
+                    RedisStringCommands.SetOption.upsert()));
+        } catch (Exception e) {
+            log.warn("写入实体缓存失败，name：{}，id：{}", name, id, e);
+        }
+    }
+
+    /**
+     * 把 Controller 传入的 String 类型 id 转换为实体 id，无法转换时返回 null
+     */
+    public static Integer parseId(Serializable id) {
+        if (id == null || id instanceof Integer) {
+            return (Integer) id;
+        }
+        try {
+            return Integer.valueOf(id.toString());
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private String redisKey(Integer id) {
+        return StockRedisConstant.ENTITY_CACHE_PREFIX + name + "_" + id;
+    }
+}
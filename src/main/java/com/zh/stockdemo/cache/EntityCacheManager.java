@@ -0,0 +1,82 @@
+package com.zh.stockdemo.cache;
+
+import com.zh.stockdemo.config.StockProperties;
+import com.zh.stockdemo.constant.StockRedisConstant;
+import com.zh.stockdemo.dto.EntityCacheStatsDTO;
+import com.zh.stockdemo.entity.Order;
+import com.zh.stockdemo.entity.StockLog;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * 实体缓存管理
+ * <p>
+ * 订单写入后不再变化，全部缓存；库存流水只缓存已提交(1)和已回滚(2)的终态流水，
+ * 初始化状态(0)的流水会被事务消息监听器修改，不进入缓存，因此状态变更无需失效缓存。
+ *
+ */
+@Slf4j
+@Component
+public class EntityCacheManager implements MessageListener {
+
+    private final RedisTemplate redisTemplate;
+
+    private final EntityCache<Order> orderCache;
+
+    private final EntityCache<StockLog> stockLogCache;
+
+    public EntityCacheManager(RedisTemplate redisTemplate, RedisMessageListenerContainer redisMessageListenerContainer,
+                              StockProperties stockProperties) {
+        this.redisTemplate = redisTemplate;
+        this.orderCache = new EntityCache<>("order", Order.class, each -> true,
+                redisTemplate, stockProperties.getEntityCache());
+        this.stockLogCache = new EntityCache<>("stock_log", StockLog.class, each -> each.getStatus() != null && each.getStatus() != 0,
+                redisTemplate, stockProperties.getEntityCache());
+        redisMessageListenerContainer.addMessageListener(this, new ChannelTopic(StockRedisConstant.ENTITY_CACHE_EVICT_CHANNEL));
+    }
+
+    public EntityCache<Order> getOrderCache() {
+        return orderCache;
+    }
+
+    public EntityCache<StockLog> getStockLogCache() {
+        return stockLogCache;
+    }
+
+    public List<EntityCacheStatsDTO> stats() {
+        return Stream.of(orderCache, stockLogCache)
+                .map(EntityCache::stats)
+                .collect(Collectors.toList());
+    }
+
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        Object body = redisTemplate.getValueSerializer().deserialize(message.getBody());
+        String value = body == null ? "" : body.toString();
+        int index = value.lastIndexOf(':');
+        if (index < 0) {
+            log.warn("无法识别的实体缓存失效消息：{}", body);
+            return;
+        }
+        Integer id;
+        try {
+            id = Integer.valueOf(value.substring(index + 1));
+        } catch (NumberFormatException e) {
+            log.warn("无法识别的实体缓存失效消息：{}", body);
+            return;
+        }
+        String name = value.substring(0, index);
+        Stream.of(orderCache, stockLogCache)
+                .filter(each -> each.getName().equals(name))
+                .forEach(each -> each.evictLocal(id));
+    }
+}
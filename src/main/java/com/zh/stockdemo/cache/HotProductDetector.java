@@ -0,0 +1,183 @@
+package com.zh.stockdemo.cache;
+
+import com.zh.stockdemo.config.StockProperties;
+import com.zh.stockdemo.dto.HotProductDTO;
+import org.springframework.stereotype.Component;
+
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.stream.Collectors;
+
+/**
+ * 热点商品识别
+ * <p>
+ * 滑动窗口由 buckets 个时间桶组成，每个桶是一个 count-min sketch（depth 行 x width 列的原子计数器），
+ * 记录访问只做 depth 次原子自增，不加锁、不随商品数增长占用内存；窗口内的访问次数为各桶估计值之和，只会高估不会低估。
+ * 时间桶到期后由首个发现的线程 CAS 推进并清空最旧的桶。
+ * <p>
+ * 窗口内访问次数达到 threshold 的商品标记为热点，标记保持 hold 时间，避免在阈值附近反复切换。
+ * 热点商品可自动使用更激进的策略：开启 auto-lease 时走节点本地库存租借，开启 auto-sold-out 时即使关闭了本地售罄索引也使用本地售罄标识；
+ * 冷门商品保持原有的直接扣减 Redis 路径。
+ *
+ */
+@Component
+public class HotProductDetector {
+
+    private static final int[] SEEDS = {0x9E3779B9, 0x85EBCA6B, 0xC2B2AE35, 0x27D4EB2F, 0x165667B1, 0xD3A2646C, 0xFD7046C5, 0xB55A4F09};
+
+    private final StockProperties stockProperties;
+
+    private final int depth;
+
+    private final int width;
+
+    private final long bucketMillis;
+
+    private final AtomicLongArray[] buckets;
+
+    private volatile int current;
+
+    private final AtomicLong nextRotateAt;
+
+    /**
+     * 热点商品 productId -> 热点标记过期时间
+     */
+    private final ConcurrentHashMap<Integer, Long> hotProducts = new ConcurrentHashMap<>();
+
+    public HotProductDetector(StockProperties stockProperties) {
+        this.stockProperties = stockProperties;
+        StockProperties.Hot hot = stockProperties.getHot();
+        this.depth = Math.min(Math.max(hot.getDepth(), 1), SEEDS.length);
+        this.width = Math.max(hot.getWidth(), 16);
+        this.buckets = new AtomicLongArray[Math.max(hot.getBuckets(), 1)];
+        for (int i = 0; i < buckets.length; i++) {
+            buckets[i] = new AtomicLongArray(depth * width);
+        }
+        this.bucketMillis = Math.max(hot.getWindow().toMillis() / buckets.length, 1L);
+        this.nextRotateAt = new AtomicLong(System.currentTimeMillis() + bucketMillis);
+    }
+
+    /**
+     * 记录一次商品访问
+     */
+    public void record(Integer productId) {
+        StockProperties.Hot hot = stockProperties.getHot();
+        if (!hot.isEnabled() || productId == null) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        rotate(now);
+        AtomicLongArray bucket = buckets[current];
+        for (int row = 0; row < depth; row++) {
+            bucket.incrementAndGet(index(row, productId));
+        }
+        // 已是热点且标记剩余时间超过一半时不再估计，减少热点商品每次访问的开销
+        Long hotUntil = hotProducts.get(productId);
+        if (hotUntil != null && hotUntil - now > hot.getHold().toMillis() / 2) {
+            return;
+        }
+        if (estimate(productId) >= hot.getThreshold()
+                && (hotUntil != null || hotProducts.size() < hot.getMaxTracked())) {
+            hotProducts.put(productId, now + hot.getHold().toMillis());
+        }
+    }
+
+    /**
+     * 商品当前是否为热点
+     */
+    public boolean isHot(Integer productId) {
+        if (!stockProperties.getHot().isEnabled()) {
+            return false;
+        }
+        Long hotUntil = hotProducts.get(productId);
+        return hotUntil != null && hotUntil > System.currentTimeMillis();
+    }
+
+    /**
+     * 商品是否走库存租借：配置了租借的商品，或开启 auto-lease 时的热点商品
+     */
+    public boolean useLease(Integer productId) {
+        StockProperties.Lease lease = stockProperties.getLease();
+        if (lease.isLeased(productId)) {
+            return true;
+        }
+        return stockProperties.getHot().isAutoLease() && lease.isEnabled() && lease.getSize() > 1 && isHot(productId);
+    }
+
+    /**
+     * 商品是否使用本地售罄标识：开启了本地售罄索引，或开启 auto-sold-out 时的热点商品
+     */
+    public boolean useLocalSoldOut(Integer productId) {
+        if (stockProperties.getSoldOut().isEnabled()) {
+            return true;
+        }
+        return stockProperties.getHot().isAutoSoldOut() && isHot(productId);
+    }
+
+    /**
+     * 窗口内访问次数的估计值
+     */
+    public long estimate(Integer productId) {
+        long sum = 0;
+        for (AtomicLongArray bucket : buckets) {
+            long min = Long.MAX_VALUE;
+            for (int row = 0; row < depth; row++) {
+                min = Math.min(min, bucket.get(index(row, productId)));
+            }
+            sum += min;
+        }
+        return sum;
+    }
+
+    /**
+     * 按窗口内访问次数倒序排列的热点商品
+     */
+    public List<HotProductDTO> topHotProducts(int limit) {
+        long now = System.currentTimeMillis();
+        return hotProducts.entrySet().stream()
+                .filter(each -> each.getValue() > now)
+                .map(each -> HotProductDTO.builder()
+                        .productId(each.getKey())
+                        .count(estimate(each.getKey()))
+                        .hotUntil(each.getValue())
+                        .build())
+                .sorted(Comparator.comparing(HotProductDTO::getCount).reversed())
+                .limit(Math.max(limit, 0))
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * 推进时间桶，只有 CAS 成功的线程清空过期的桶
+     */
+    private void rotate(long now) {
+        long rotateAt = nextRotateAt.get();
+        if (now < rotateAt) {
+            return;
+        }
+        long steps = (now - rotateAt) / bucketMillis + 1;
+        if (!nextRotateAt.compareAndSet(rotateAt, rotateAt + steps * bucketMillis)) {
+            return;
+        }
+        int next = current;
+        for (long i = 0; i < Math.min(steps, buckets.length); i++) {
+            next = (next + 1) % buckets.length;
+            AtomicLongArray bucket = buckets[next];
+            for (int j = 0; j < bucket.length(); j++) {
+                bucket.set(j, 0L);
+            }
+        }
+        current = next;
+        hotProducts.values().removeIf(hotUntil -> hotUntil <= now);
+    }
+
+    private int index(int row, Integer productId) {
+        int hash = productId * SEEDS[row];
+        hash ^= hash >>> 16;
+        hash *= 0x85EBCA6B;
+        hash ^= hash >>> 13;
+        return row * width + Math.floorMod(hash, width);
+    }
+}
@@ -0,0 +1,115 @@
+package com.zh.stockdemo.cache;
+
+import com.zh.stockdemo.config.StockProperties;
+import com.zh.stockdemo.constant.StockRedisConstant;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 本地售罄索引
+ * <p>
+ * 商品售罄后各节点在本地记录售罄标识，后续请求无需再访问 Redis 即可直接拒绝。
+ * 售罄/恢复事件通过 Redis 发布订阅同步到所有节点，本地标识带有过期时间，过期后重新以 Redis 售罄标识为准。
+ *
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class SoldOutIndex implements MessageListener, InitializingBean {
+
+    private final RedisTemplate redisTemplate;
+
+    private final RedisMessageListenerContainer redisMessageListenerContainer;
+
+    private final StockProperties stockProperties;
+
+    private final HotProductDetector hotProductDetector;
+
+    /**
+     * productId -> 本地售罄标识过期时间
+     */
+    private final ConcurrentHashMap<Integer, Long> soldOutProducts = new ConcurrentHashMap<>();
+
+    @Override
+    public void afterPropertiesSet() {
+        redisMessageListenerContainer.addMessageListener(this, Arrays.asList(
+                new ChannelTopic(StockRedisConstant.SOLD_OUT_CHANNEL),
+                new ChannelTopic(StockRedisConstant.SOLD_OUT_CLEAR_CHANNEL)));
+    }
+
+    /**
+     * 本地判断商品是否售罄，不产生任何 IO
+     */
+    public boolean isSoldOut(Integer productId) {
+        if (!hotProductDetector.useLocalSoldOut(productId)) {
+            return false;
+        }
+        Long expireAt = soldOutProducts.get(productId);
+        if (expireAt == null) {
+            return false;
+        }
+        if (expireAt > System.currentTimeMillis()) {
+            return true;
+        }
+        soldOutProducts.remove(productId, expireAt);
+        return false;
+    }
+
+    /**
+     * 仅在本节点记录售罄标识，用于从 Redis 读到售罄标识的场景
+     */
+    public void markLocal(Integer productId) {
+        soldOutProducts.put(productId, System.currentTimeMillis() + stockProperties.getSoldOut().getLocalTtl().toMillis());
+    }
+
+    /**
+     * 记录售罄标识并通知其他节点
+     */
+    public void markSoldOut(Integer productId) {
+        markLocal(productId);
+        publish(StockRedisConstant.SOLD_OUT_CHANNEL, productId);
+    }
+
+    /**
+     * 清除售罄标识并通知其他节点，用于库存回补后恢复售卖
+     */
+    public void clearSoldOut(Integer productId) {
+        soldOutProducts.remove(productId);
+        publish(StockRedisConstant.SOLD_OUT_CLEAR_CHANNEL, productId);
+    }
+
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        Object body = redisTemplate.getValueSerializer().deserialize(message.getBody());
+        if (!(body instanceof Number)) {
+            log.warn("无法识别的售罄消息：{}", body);
+            return;
+        }
+        Integer productId = ((Number) body).intValue();
+        String channel = new String(message.getChannel());
+        if (StockRedisConstant.SOLD_OUT_CHANNEL.equals(channel)) {
+            markLocal(productId);
+        } else {
+            soldOutProducts.remove(productId);
+        }
+    }
+
+    private void publish(String channel, Integer productId) {
+        try {
+            redisTemplate.convertAndSend(channel, productId);
+        } catch (Exception e) {
+            // 通知失败不影响主流程，其他节点最迟在下一次访问 Redis 售罄标识时同步
+            log.warn("售罄消息发布失败，channel：{}，productId：{}", channel, productId, e);
+        }
+    }
+}
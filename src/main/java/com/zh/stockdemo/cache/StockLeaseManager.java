@@ -0,0 +1,240 @@
+package com.zh.stockdemo.cache;
+
+import com.zh.stockdemo.config.StockProperties;
+import com.zh.stockdemo.constant.StockRedisConstant;
+import com.zh.stockdemo.redis.RedisScriptRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.env.Environment;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StringUtils;
+
+import javax.annotation.PreDestroy;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 节点本地库存租借
+ * <p>
+ * 每个节点一次从 Redis 租借一批库存，之后在本地无锁扣减，本地库存用完后再租借下一批，
+ * 热点商品访问 Redis 的次数约降为原来的 1/租借数量。租借到本地的库存已经从 Redis 扣除，因此全局不会超卖；
+ * 闲置超时或节点关闭时未使用的库存归还到 Redis。
+ * <p>
+ * 各节点还未用完的租借库存记录在 Redis 的租借 hash 中，租借时写入，本地用完、补偿和归还时更新，记录值只会高于实际剩余。
+ * 中心库存耗尽时只要还有节点持有租借库存就不设置售罄标识，这部分库存可能在闲置后归还；
+ * 中心库存和所有节点的租借记录都为 0 时才设置售罄标识并通知各节点。节点异常退出时其租借记录保留，
+ * 使用同一节点标识重启后首次租借或上报时覆盖。
+ *
+ */
+@Slf4j
+@Component
+public class StockLeaseManager {
+
+    private final RedisScriptRegistry redisScriptRegistry;
+
+    private final StockProperties stockProperties;
+
+    private final SoldOutIndex soldOutIndex;
+
+    /**
+     * 租借 hash 中本节点的字段
+     */
+    private final String nodeId;
+
+    private final Map<Integer, Lease> leases = new ConcurrentHashMap<>();
+
+    public StockLeaseManager(RedisScriptRegistry redisScriptRegistry, StockProperties stockProperties, SoldOutIndex soldOutIndex,
+                             Environment environment) {
+        this.redisScriptRegistry = redisScriptRegistry;
+        this.stockProperties = stockProperties;
+        this.soldOutIndex = soldOutIndex;
+        String nodeId = stockProperties.getLease().getNodeId();
+        this.nodeId = StringUtils.hasText(nodeId) ? nodeId : hostName() + ":" + environment.getProperty("server.port", "8080");
+    }
+
+    /**
+     * 从本地租借库存扣减，本地不足时向 Redis 租借
+     *
+     * @param productId 产品id
+     * @param amount    扣减数量
+     * @return 1->扣减成功，0->库存售罄，-1->库存不存在，-2->库存不足本次扣减数量
+     */
+    public Long decreaseStock(Integer productId, Integer amount) {
+        Lease lease = leases.computeIfAbsent(productId, key -> new Lease());
+        lease.lastAccessTime = System.currentTimeMillis();
+        while (true) {
+            long left = lease.tryDecrease(amount);
+            if (left >= 0) {
+                if (left == 0) {
+                    // 本地租借库存用完，更新租借记录，其他节点据此判断是否售罄
+                    report(productId, lease);
+                }
+                return 1L;
+            }
+            lease.lock.lock();
+            try {
+                // 其他线程可能已经租借到库存
+                long remaining = lease.remaining.get();
+                if (remaining >= amount) {
+                    continue;
+                }
+                long leaseSize = Math.max(stockProperties.getLease().getSize(), amount - remaining);
+                Long granted = lease(productId, leaseSize, remaining);
+                if (granted == null || granted < 0L) {
+                    return granted;
+                }
+                if (granted == 0L) {
+                    // 中心库存和所有节点的租借库存都已耗尽，脚本已设置售罄标识
+                    soldOutIndex.markSoldOut(productId);
+                    return 0L;
+                }
+                lease.remaining.addAndGet(granted);
+            } finally {
+                lease.lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * 补偿库存，直接归还到本地租借库存并更新租借记录
+     */
+    public void increaseStock(Integer productId, Integer amount) {
+        Lease lease = leases.computeIfAbsent(productId, key -> new Lease());
+        lease.lock.lock();
+        try {
+            boolean wasEmpty = lease.remaining.getAndAdd(amount) <= 0;
+            report(productId, lease);
+            if (wasEmpty) {
+                // 本节点耗尽时商品可能已被标记售罄
+                soldOutIndex.clearSoldOut(productId);
+            }
+        } finally {
+            lease.lock.unlock();
+        }
+    }
+
+    /**
+     * 本节点租借到本地、还未扣减的库存
+     */
+    public long getLocalStock(Integer productId) {
+        Lease lease = leases.get(productId);
+        return lease == null ? 0L : Math.max(lease.remaining.get(), 0L);
+    }
+
+    /**
+     * 归还闲置超时的租借库存
+     */
+    @Scheduled(fixedDelay = 1000L)
+    public void returnIdleLeases() {
+        long idleBefore = System.currentTimeMillis() - stockProperties.getLease().getIdleTimeout().toMillis();
+        leases.forEach((productId, lease) -> {
+            if (lease.lastAccessTime < idleBefore && lease.remaining.get() > 0) {
+                returnLease(productId, lease);
+            }
+        });
+    }
+
+    /**
+     * 节点关闭时归还所有租借库存
+     */
+    @PreDestroy
+    public void returnAllLeases() {
+        leases.forEach(this::returnLease);
+    }
+
+    private void returnLease(Integer productId, Lease lease) {
+        lease.lock.lock();
+        try {
+            long remaining = lease.remaining.getAndSet(0);
+            if (remaining <= 0) {
+                return;
+            }
+            try {
+                redisScriptRegistry.execute(StockRedisConstant.LUA_RETURN_STOCK, keys(productId), remaining, nodeId);
+                soldOutIndex.clearSoldOut(productId);
+                log.info("归还租借库存，productId：{}，数量：{}", productId, remaining);
+            } catch (Exception e) {
+                // 归还失败时放回本地，下次继续尝试
+                lease.remaining.addAndGet(remaining);
+                log.error("归还租借库存失败，productId：{}，数量：{}", productId, remaining, e);
+            }
+        } finally {
+            lease.lock.unlock();
+        }
+    }
+
+    /**
+     * 从 Redis 租借库存，同时把本节点的租借记录更新为 本地剩余 + 本次租借数量
+     *
+     * @return 租借到的数量，0->售罄，-1->库存不存在，-2->中心库存不足但仍有节点持有租借库存
+     */
+    private Long lease(Integer productId, long leaseSize, long remaining) {
+        return redisScriptRegistry.execute(StockRedisConstant.LUA_LEASE_STOCK, keys(productId), leaseSize, nodeId, remaining);
+    }
+
+    /**
+     * 不租借，只把本节点的租借记录更新为本地剩余数量，中心库存和所有租借记录都为 0 时设置售罄标识
+     */
+    private void report(Integer productId, Lease lease) {
+        lease.lock.lock();
+        try {
+            Long result = lease(productId, 0L, Math.max(lease.remaining.get(), 0L));
+            if (result != null && result == 0L) {
+                soldOutIndex.markSoldOut(productId);
+            }
+        } catch (Exception e) {
+            // 上报失败时租借记录偏高，只会推迟售罄标识，不会导致超卖
+            log.warn("上报租借库存失败，productId：{}", productId, e);
+        } finally {
+            lease.lock.unlock();
+        }
+    }
+
+    private static List<String> keys(Integer productId) {
+        return Arrays.asList(StockRedisConstant.stockKey(productId), StockRedisConstant.stockInvalidKey(productId),
+                StockRedisConstant.stockLeaseKey(productId));
+    }
+
+    private static String hostName() {
+        try {
+            return InetAddress.getLocalHost().getHostName();
+        } catch (UnknownHostException e) {
+            return "localhost";
+        }
+    }
+
+    private static class Lease {
+
+        /**
+         * 本地剩余的租借库存
+         */
+        private final AtomicLong remaining = new AtomicLong();
+
+        /**
+         * 租借库存时加锁，避免同一节点并发重复租借
+         */
+        private final ReentrantLock lock = new ReentrantLock();
+
+        private volatile long lastAccessTime = System.currentTimeMillis();
+
+        /**
+         * @return 扣减后的本地剩余数量，本地不足时返回 -1
+         */
+        private long tryDecrease(int amount) {
+            long current;
+            do {
+                current = remaining.get();
+                if (current < amount) {
+                    return -1L;
+                }
+            } while (!remaining.compareAndSet(current, current - amount));
+            return current - amount;
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package com.zh.stockdemo.cache;
+
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.zh.stockdemo.config.StockProperties;
+import com.zh.stockdemo.entity.StockLog;
+import com.zh.stockdemo.mapper.StockLogMapper;
+import org.springframework.stereotype.Component;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 本地库存流水状态索引
+ * <p>
+ * 事务消息回查时优先从本地读取库存流水状态，避免 Broker 集中回查时每条消息都查询一次数据库。
+ * 已提交(1)和已回滚(2)是终态，写入后不再变化，可以一直缓存直到被淘汰；初始化状态(0)随时可能变化，
+ * 只短暂缓存，过期后重新查询，读到旧的 0 只会让 Broker 稍后再次回查。
+ * <p>
+ * 本地未命中时按 id 区间一次查询后续一批流水的状态，集中回查时相邻 id 的后续回查可以直接命中。
+ *
+ */
+@Component
+public class StockLogStatusIndex {
+
+    private final StockLogMapper stockLogMapper;
+
+    private final StockProperties stockProperties;
+
+    /**
+     * stockLogId -> 状态，按访问顺序淘汰
+     */
+    private final Map<Integer, Entry> statuses;
+
+    public StockLogStatusIndex(StockLogMapper stockLogMapper, StockProperties stockProperties) {
+        this.stockLogMapper = stockLogMapper;
+        this.stockProperties = stockProperties;
+        int capacity = stockProperties.getStatusIndex().getCapacity();
+        this.statuses = Collections.synchronizedMap(new LinkedHashMap<Integer, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, Entry> eldest) {
+                return size() > capacity;
+            }
+        });
+    }
+
+    /**
+     * 记录库存流水状态，应在状态变更的事务提交后调用
+     */
+    public void record(Integer stockLogId, Integer status) {
+        if (stockLogId == null || status == null) {
+            return;
+        }
+        statuses.put(stockLogId, new Entry(status, expireAt(status)));
+    }
+
+    /**
+     * 查询库存流水状态
+     *
+     * @return 库存流水状态，流水不存在时返回 null
+     */
+    public Integer getStatus(Integer stockLogId) {
+        Entry entry = statuses.get(stockLogId);
+        if (entry != null && entry.expireAt > System.currentTimeMillis()) {
+            return entry.status;
+        }
+        return load(stockLogId);
+    }
+
+    private Integer load(Integer stockLogId) {
+        int prefetchSize = stockProperties.getStatusIndex().getPrefetchSize();
+        List<StockLog> stockLogs = stockLogMapper.selectList(new QueryWrapper<StockLog>()
+                .select("id", "status")
+                .ge("id", stockLogId)
+                .lt("id", stockLogId + prefetchSize));
+        Integer status = null;
+        for (StockLog each : stockLogs) {
+            record(each.getId(), each.getStatus());
+            if (each.getId().equals(stockLogId)) {
+                status = each.getStatus();
+            }
+        }
+        return status;
+    }
+
+    private long expireAt(Integer status) {
+        if (status == 0) {
+            return System.currentTimeMillis() + stockProperties.getStatusIndex().getPendingTtl().toMillis();
+        }
+        return Long.MAX_VALUE;
+    }
+
+    private static class Entry {
+
+        private final Integer status;
+
+        private final long expireAt;
+
+        private Entry(Integer status, long expireAt) {
+            this.status = status;
+            this.expireAt = expireAt;
+        }
+    }
+}
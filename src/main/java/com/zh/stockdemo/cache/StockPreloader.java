@@ -0,0 +1,185 @@
+package com.zh.stockdemo.cache;
+
+import com.zh.stockdemo.config.StockProperties;
+import com.zh.stockdemo.constant.StockRedisConstant;
+import com.zh.stockdemo.dto.StockPreloadResultDTO;
+import com.zh.stockdemo.entity.Stock;
+import com.zh.stockdemo.mapper.StockMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.ibatis.cursor.Cursor;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.data.redis.connection.RedisStringCommands;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.types.Expiration;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.data.redis.serializer.StringRedisSerializer;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * 库存预热
+ * <p>
+ * 通过 MyBatis 游标流式读取 stock 表，每 batch-size 个商品用一个 pipeline 写入 Redis，
+ * 随后再用一个 pipeline 删除这些商品的售罄标识，并通知各节点清除本地售罄索引。
+ * <p>
+ * 启动时只补齐 Redis 中不存在的库存（SET NX），不会用落后于 Redis 的 MySQL 库存覆盖正在扣减的库存；
+ * 覆盖模式只应在停止下单后手动执行。分段商品的库存平均拆分到各分段，用 MSETNX/MSET 保证各分段同时写入。
+ *
+ */
+@Slf4j
+@Component
+public class StockPreloader implements ApplicationRunner {
+
+    private final StockMapper stockMapper;
+
+    private final RedisTemplate redisTemplate;
+
+    private final StockProperties stockProperties;
+
+    private final SoldOutIndex soldOutIndex;
+
+    private final TransactionTemplate transactionTemplate;
+
+    public StockPreloader(StockMapper stockMapper, RedisTemplate redisTemplate, StockProperties stockProperties,
+                          SoldOutIndex soldOutIndex, PlatformTransactionManager transactionManager) {
+        this.stockMapper = stockMapper;
+        this.redisTemplate = redisTemplate;
+        this.stockProperties = stockProperties;
+        this.soldOutIndex = soldOutIndex;
+        // 游标需要在同一个会话内遍历完成
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.transactionTemplate.setReadOnly(true);
+    }
+
+    @Override
+    public void run(ApplicationArguments args) {
+        if (!stockProperties.getPreload().isOnStartup()) {
+            return;
+        }
+        try {
+            StockPreloadResultDTO result = preload(false);
+            log.info("启动库存预热完成：{}", result);
+        } catch (Exception e) {
+            log.error("启动库存预热失败", e);
+        }
+    }
+
+    /**
+     * 把 MySQL 库存加载到 Redis
+     *
+     * @param overwrite 是否覆盖 Redis 中已存在的库存
+     */
+    public StockPreloadResultDTO preload(boolean overwrite) {
+        long startTime = System.currentTimeMillis();
+        StockPreloadResultDTO result = StockPreloadResultDTO.builder()
+                .scanned(0)
+                .loaded(0)
+                .soldOutCleared(0)
+                .build();
+        int batchSize = stockProperties.getPreload().getBatchSize();
+        transactionTemplate.executeWithoutResult(status -> {
+            try (Cursor<Stock> cursor = stockMapper.scanStock()) {
+                List<Stock> batch = new ArrayList<>(batchSize);
+                for (Stock stock : cursor) {
+                    if (stock.getProductId() == null || stock.getStockNum() == null) {
+                        continue;
+                    }
+                    batch.add(stock);
+                    if (batch.size() >= batchSize) {
+                        flush(batch, overwrite, result);
+                        batch.clear();
+                    }
+                }
+                if (!batch.isEmpty()) {
+                    flush(batch, overwrite, result);
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+        result.setCostMillis(System.currentTimeMillis() - startTime);
+        return result;
+    }
+
+    private void flush(List<Stock> batch, boolean overwrite, StockPreloadResultDTO result) {
+        RedisSerializer valueSerializer = redisTemplate.getValueSerializer();
+        List<Object> written = redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            RedisStringCommands commands = connection.stringCommands();
+            for (Stock stock : batch) {
+                Map<byte[], byte[]> values = stockValues(stock, valueSerializer);
+                if (values.size() > 1) {
+                    if (overwrite) {
+                        commands.mSet(values);
+                    } else {
+                        commands.mSetNX(values);
+                    }
+                    continue;
+                }
+                Map.Entry<byte[], byte[]> value = values.entrySet().iterator().next();
+                if (overwrite) {
+                    commands.set(value.getKey(), value.getValue());
+                } else {
+                    commands.set(value.getKey(), value.getValue(), Expiration.persistent(), RedisStringCommands.SetOption.ifAbsent());
+                }
+            }
+            return null;
+        });
+
+        // 只清除本次写入且有库存的商品的售罄标识
+        List<Stock> loaded = new ArrayList<>(batch.size());
+        for (int i = 0; i < batch.size(); i++) {
+            if (Boolean.TRUE.equals(written.get(i))) {
+                loaded.add(batch.get(i));
+            }
+        }
+        List<Stock> restocked = loaded.stream()
+                .filter(each -> each.getStockNum() > 0)
+                .collect(Collectors.toList());
+        List<Object> deleted = restocked.isEmpty() ? new ArrayList<>() : redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (Stock stock : restocked) {
+                connection.keyCommands().del(StringRedisSerializer.UTF_8.serialize(StockRedisConstant.stockInvalidKey(stock.getProductId())));
+            }
+            return null;
+        });
+        int cleared = 0;
+        for (int i = 0; i < restocked.size(); i++) {
+            if (deleted.get(i) instanceof Number && ((Number) deleted.get(i)).longValue() > 0) {
+                soldOutIndex.clearSoldOut(restocked.get(i).getProductId());
+                cleared++;
+            }
+        }
+
+        result.setScanned(result.getScanned() + batch.size());
+        result.setLoaded(result.getLoaded() + loaded.size());
+        result.setSoldOutCleared(result.getSoldOutCleared() + cleared);
+    }
+
+    /**
+     * 商品对应的 Redis 库存，分段商品平均拆分，余数放在前面的分段
+     */
+    private Map<byte[], byte[]> stockValues(Stock stock, RedisSerializer valueSerializer) {
+        Map<byte[], byte[]> values = new LinkedHashMap<>();
+        StockProperties.Segment segment = stockProperties.getSegment();
+        if (!segment.isSegmented(stock.getProductId())) {
+            values.put(StringRedisSerializer.UTF_8.serialize(StockRedisConstant.stockKey(stock.getProductId())), valueSerializer.serialize(stock.getStockNum()));
+            return values;
+        }
+        int count = segment.getCount();
+        for (int i = 0; i < count; i++) {
+            int segmentStock = stock.getStockNum() / count + (i < stock.getStockNum() % count ? 1 : 0);
+            values.put(StringRedisSerializer.UTF_8.serialize(StockRedisConstant.stockSegmentKey(stock.getProductId(), i)), valueSerializer.serialize(segmentStock));
+        }
+        return values;
+    }
+}
@@ -0,0 +1,30 @@
+package com.zh.stockdemo.config;
+
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+import java.util.concurrent.ThreadPoolExecutor;
+
+
+@Configuration
+public class ExecutorConfig {
+
+    /**
+     * 异步下单发送事务消息的线程池，队列满时拒绝，由调用方返回繁忙
+     */
+    @Bean
+    public ThreadPoolTaskExecutor orderSubmitExecutor(StockProperties stockProperties) {
+        StockProperties.Ticket ticket = stockProperties.getTicket();
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(ticket.getExecutorThreads());
+        executor.setMaxPoolSize(ticket.getExecutorThreads());
+        executor.setQueueCapacity(ticket.getQueueCapacity());
+        executor.setThreadNamePrefix("order-submit-");
+        executor.setRejectedExecutionHandler(new ThreadPoolExecutor.AbortPolicy());
+        executor.setWaitForTasksToCompleteOnShutdown(true);
+        executor.setAwaitTerminationSeconds(30);
+        executor.initialize();
+        return executor;
+    }
+}
@@ -0,0 +1,553 @@
+package com.zh.stockdemo.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * 库存扣减相关配置
+ *
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "stock")
+public class StockProperties {
+
+    /**
+     * 分段库存配置
+     */
+    private Segment segment = new Segment();
+
+    /**
+     * 本地售罄索引配置
+     */
+    private SoldOut soldOut = new SoldOut();
+
+    /**
+     * 节点本地库存租借配置
+     */
+    private Lease lease = new Lease();
+
+    /**
+     * 库存同步消费者配置
+     */
+    private Consumer consumer = new Consumer();
+
+    /**
+     * 订单组提交配置
+     */
+    private GroupCommit groupCommit = new GroupCommit();
+
+    /**
+     * 异步下单凭证配置
+     */
+    private Ticket ticket = new Ticket();
+
+    /**
+     * 库存消息编解码配置
+     */
+    private Codec codec = new Codec();
+
+    /**
+     * 消费幂等配置
+     */
+    private Idempotent idempotent = new Idempotent();
+
+    /**
+     * 库存流水状态索引配置
+     */
+    private StatusIndex statusIndex = new StatusIndex();
+
+    /**
+     * 号段id分配配置
+     */
+    private IdSegment idSegment = new IdSegment();
+
+    /**
+     * 库存流水异步写入配置
+     */
+    private WriteBehind writeBehind = new WriteBehind();
+
+    /**
+     * 库存对账配置
+     */
+    private Reconcile reconcile = new Reconcile();
+
+    /**
+     * 库存预热配置
+     */
+    private Preload preload = new Preload();
+
+    /**
+     * 实体缓存配置
+     */
+    private EntityCache entityCache = new EntityCache();
+
+    /**
+     * 热点商品识别配置
+     */
+    private Hot hot = new Hot();
+
+    /**
+     * 下单准入控制配置
+     */
+    private Admission admission = new Admission();
+
+    /**
+     * Redis 扣减合并配置
+     */
+    private Coalesce coalesce = new Coalesce();
+
+    @Data
+    public static class Segment {
+
+        /**
+         * 是否开启分段库存
+         */
+        private boolean enabled = false;
+
+        /**
+         * 每个商品拆分的分段数量
+         */
+        private int count = 4;
+
+        /**
+         * 分段选择策略
+         */
+        private SegmentStrategy strategy = SegmentStrategy.HASH;
+
+        /**
+         * 需要分段的商品，为空表示所有商品都分段
+         */
+        private Set<Integer> productIds = new HashSet<>();
+
+        public boolean isSegmented(Integer productId) {
+            return enabled && count > 1 && (productIds.isEmpty() || productIds.contains(productId));
+        }
+    }
+
+    @Data
+    public static class SoldOut {
+
+        /**
+         * 是否开启本地售罄索引
+         */
+        private boolean enabled = true;
+
+        /**
+         * 本地售罄标识有效期，过期后重新以 Redis 售罄标识为准
+         */
+        private Duration localTtl = Duration.ofSeconds(30);
+    }
+
+    @Data
+    public static class Lease {
+
+        /**
+         * 是否开启库存租借
+         */
+        private boolean enabled = false;
+
+        /**
+         * 每次从 Redis 租借的库存数量
+         */
+        private int size = 50;
+
+        /**
+         * 租借库存闲置超过该时间后归还到 Redis
+         */
+        private Duration idleTimeout = Duration.ofSeconds(10);
+
+        /**
+         * 需要租借库存的商品，为空表示所有商品
+         */
+        private Set<Integer> productIds = new HashSet<>();
+
+        /**
+         * 节点标识，作为 Redis 租借记录的字段，为空时使用 主机名:端口，重启后沿用同一标识覆盖之前的记录
+         */
+        private String nodeId;
+
+        public boolean isLeased(Integer productId) {
+            return enabled && size > 1 && (productIds.isEmpty() || productIds.contains(productId));
+        }
+    }
+
+    @Data
+    public static class Consumer {
+
+        /**
+         * 是否开启批量消费，开启后同一批消息按商品合并为一条扣减 SQL
+         */
+        private boolean batchEnabled = false;
+
+        /**
+         * 每批最多消费的消息数
+         */
+        private int batchSize = 64;
+
+        /**
+         * 攒批时间窗口，即两次拉取消息的间隔
+         */
+        private Duration batchWindow = Duration.ofMillis(20);
+    }
+
+    @Data
+    public static class GroupCommit {
+
+        /**
+         * 是否开启订单组提交
+         */
+        private boolean enabled = false;
+
+        /**
+         * 攒批时间窗口
+         */
+        private Duration window = Duration.ofMillis(2);
+
+        /**
+         * 每批最多提交的订单数
+         */
+        private int maxBatchSize = 128;
+
+        /**
+         * 等待提交的订单队列容量
+         */
+        private int queueCapacity = 10000;
+
+        /**
+         * 调用方等待提交结果的超时时间
+         */
+        private Duration timeout = Duration.ofSeconds(3);
+    }
+
+    @Data
+    public static class Ticket {
+
+        /**
+         * 发送事务消息的线程数
+         */
+        private int executorThreads = 32;
+
+        /**
+         * 等待发送事务消息的队列容量，超过后直接返回繁忙
+         */
+        private int queueCapacity = 2000;
+
+        /**
+         * 查询凭证时最长等待本地事务结果的时间
+         */
+        private Duration pollTimeout = Duration.ofSeconds(5);
+    }
+
+    @Data
+    public static class Codec {
+
+        /**
+         * 是否使用紧凑二进制格式发送消息，关闭时发送 JSON，解码始终兼容两种格式
+         */
+        private boolean binaryEnabled = true;
+    }
+
+    @Data
+    public static class Idempotent {
+
+        /**
+         * 幂等标识保留时间，需大于消息最大重投时间
+         */
+        private Duration retention = Duration.ofHours(24);
+
+        /**
+         * 时间桶跨度，同一跨度内发送的消息记录在同一个 hash 中
+         */
+        private Duration bucketSize = Duration.ofHours(1);
+
+        /**
+         * 本节点最近占用成功的消息数上限，命中时不再访问 Redis
+         */
+        private int localCapacity = 100000;
+    }
+
+    @Data
+    public static class StatusIndex {
+
+        /**
+         * 本地缓存的库存流水状态数上限
+         */
+        private int capacity = 100000;
+
+        /**
+         * 本地未命中时一次查询的后续流水数量
+         */
+        private int prefetchSize = 200;
+
+        /**
+         * 初始化状态的本地缓存时间，终态不过期
+         */
+        private Duration pendingTtl = Duration.ofSeconds(2);
+    }
+
+    @Data
+    public static class IdSegment {
+
+        /**
+         * 每次从号段表领取的id数量
+         */
+        private int step = 1000;
+
+        /**
+         * 当前号段已分配比例达到该值时后台预取下一个号段
+         */
+        private double prefetchThreshold = 0.2;
+    }
+
+    @Data
+    public static class WriteBehind {
+
+        /**
+         * 是否开启库存流水异步写入，开启后下单请求不再同步插入库存流水
+         */
+        private boolean enabled = false;
+
+        /**
+         * 攒批时间窗口
+         */
+        private Duration window = Duration.ofMillis(5);
+
+        /**
+         * 每批最多写入的库存流水数
+         */
+        private int maxBatchSize = 256;
+
+        /**
+         * 等待写入队列容量，队列满时退化为同步写入
+         */
+        private int queueCapacity = 10000;
+
+        /**
+         * 事务回查时库存流水超过该时间仍不存在则回滚消息
+         */
+        private Duration missingRollbackAfter = Duration.ofSeconds(60);
+    }
+
+    @Data
+    public static class Reconcile {
+
+        /**
+         * 是否开启库存对账
+         */
+        private boolean enabled = false;
+
+        /**
+         * 是否自动修复，只会调低高于 mysql 的 redis 库存，其余差异只记录
+         */
+        private boolean repair = false;
+
+        /**
+         * 每次读取的库存行数
+         */
+        private int chunkSize = 500;
+
+        /**
+         * 每次调度最多执行的时间，超过后下次调度从游标处继续
+         */
+        private Duration tickBudget = Duration.ofMillis(500);
+
+        /**
+         * 两轮完整对账之间的间隔
+         */
+        private Duration passInterval = Duration.ofSeconds(60);
+
+        /**
+         * 最多跟踪的疑似差异商品数
+         */
+        private int maxTracked = 10000;
+
+        /**
+         * 保留的最近差异记录数
+         */
+        private int maxReported = 1000;
+    }
+
+    @Data
+    public static class Preload {
+
+        /**
+         * 是否在启动时预热，启动时只补齐 Redis 中不存在的库存
+         */
+        private boolean onStartup = true;
+
+        /**
+         * 每个 pipeline 写入的商品数
+         */
+        private int batchSize = 1000;
+    }
+
+    @Data
+    public static class EntityCache {
+
+        /**
+         * 是否开启订单、库存流水按id查询的缓存
+         */
+        private boolean enabled = true;
+
+        /**
+         * 每种实体本地缓存的最大条数
+         */
+        private long localMaxSize = 100000;
+
+        /**
+         * 本地缓存写入后的过期时间
+         */
+        private Duration localTtl = Duration.ofMinutes(10);
+
+        /**
+         * 是否开启 Redis 二级缓存
+         */
+        private boolean redisEnabled = false;
+
+        /**
+         * Redis 缓存的过期时间
+         */
+        private Duration redisTtl = Duration.ofMinutes(30);
+    }
+
+    @Data
+    public static class Hot {
+
+        /**
+         * 是否开启热点商品识别
+         */
+        private boolean enabled = true;
+
+        /**
+         * 滑动窗口长度
+         */
+        private Duration window = Duration.ofSeconds(10);
+
+        /**
+         * 滑动窗口的时间桶数
+         */
+        private int buckets = 10;
+
+        /**
+         * count-min sketch 的哈希函数数量，最多 8 个
+         */
+        private int depth = 4;
+
+        /**
+         * count-min sketch 每行的计数器数量
+         */
+        private int width = 4096;
+
+        /**
+         * 窗口内访问次数达到该值的商品标记为热点
+         */
+        private long threshold = 500;
+
+        /**
+         * 热点标记的保持时间
+         */
+        private Duration hold = Duration.ofSeconds(30);
+
+        /**
+         * 最多同时跟踪的热点商品数
+         */
+        private int maxTracked = 1000;
+
+        /**
+         * 热点商品是否自动走库存租借，需要开启 lease.enabled
+         */
+        private boolean autoLease = false;
+
+        /**
+         * 关闭本地售罄索引时热点商品是否仍使用本地售罄标识
+         */
+        private boolean autoSoldOut = true;
+    }
+
+    @Data
+    public static class Admission {
+
+        /**
+         * 是否开启下单准入控制
+         */
+        private boolean enabled = false;
+
+        /**
+         * 全局同时处理中的下单请求上限
+         */
+        private int maxConcurrent = 2000;
+
+        /**
+         * 按剩余库存重置商品令牌的周期
+         */
+        private Duration refreshInterval = Duration.ofMillis(100);
+
+        /**
+         * 每个周期准入的请求数相对剩余库存的倍数，留出下游失败的余量
+         */
+        private double overAdmitFactor = 2.0;
+
+        /**
+         * 部署的节点数，各节点平分令牌
+         */
+        private int nodeCount = 1;
+
+        /**
+         * 商品令牌闲置多久后清理
+         */
+        private Duration idleTimeout = Duration.ofSeconds(60);
+    }
+
+    @Data
+    public static class Coalesce {
+
+        /**
+         * 是否合并同一商品并发的 Redis 扣减
+         */
+        private boolean enabled = false;
+
+        /**
+         * 是否只合并热点商品的扣减
+         */
+        private boolean hotOnly = true;
+
+        /**
+         * 领头请求收集同批请求的等待时间
+         */
+        private Duration window = Duration.ofNanos(200_000);
+
+        /**
+         * 每次 Lua 调用最多合并的请求数
+         */
+        private int maxBatchSize = 128;
+
+        /**
+         * 等待合并结果的超时时间
+         */
+        private Duration timeout = Duration.ofSeconds(3);
+
+        /**
+         * 商品队列闲置超过该时间后清理
+         */
+        private Duration idleTimeout = Duration.ofSeconds(60);
+    }
+
+    public enum SegmentStrategy {
+
+        /**
+         * 按库存流水号哈希选择起始分段
+         */
+        HASH,
+
+        /**
+         * 轮询选择起始分段
+         */
+        ROUND_ROBIN
+    }
+}
@@ -0,0 +1,123 @@
+package com.zh.stockdemo.constant;
+
+/**
+ * Redis 库存相关 Key 常量类
+ *
+ */
+public final class StockRedisConstant {
+
+    /**
+     * 商品售罄标识前缀，完整 Key 为 前缀 + productId
+     */
+    public static final String PRODUCT_STOCK_INVALID_PREFIX = "product_stock_invalid_";
+
+    /**
+     * 分段库存 Key 前缀，完整 Key 为 前缀 + productId + "_" + 分段下标
+     */
+    public static final String PRODUCT_STOCK_SEGMENT_PREFIX = "product_stock_segment_";
+
+    /**
+     * 租借库存 hash Key 前缀，完整 Key 为 前缀 + productId，字段为节点标识，值为该节点还未用完的租借库存
+     */
+    public static final String PRODUCT_STOCK_LEASE_PREFIX = "product_stock_lease_";
+
+    /**
+     * 消费幂等标识前缀
+     */
+    public static final String DECREASE_MARK_PREFIX = "decrease_mark_";
+
+    /**
+     * 消费幂等标识时间桶 Key 前缀，完整 Key 为 前缀 + 时间桶编号，桶内以消息 uuid 为字段
+     */
+    public static final String DECREASE_MARK_BUCKET_PREFIX = "decrease_mark_bucket_";
+
+    /**
+     * 库存对账任务锁，同一时间只有一个节点对账
+     */
+    public static final String STOCK_RECONCILE_LOCK = "stock_reconcile_lock";
+
+    /**
+     * 商品售罄通知 Channel
+     */
+    public static final String SOLD_OUT_CHANNEL = "product_stock_sold_out_channel";
+
+    /**
+     * 商品售罄标识清除通知 Channel
+     */
+    public static final String SOLD_OUT_CLEAR_CHANNEL = "product_stock_sold_out_clear_channel";
+
+    /**
+     * 实体缓存 Key 前缀，完整 Key 为 前缀 + 缓存名 + _ + id
+     */
+    public static final String ENTITY_CACHE_PREFIX = "entity_cache_";
+
+    /**
+     * 实体缓存失效通知 Channel
+     */
+    public static final String ENTITY_CACHE_EVICT_CHANNEL = "entity_cache_evict_channel";
+
+    /**
+     * 库存扣减 Lua 脚本名
+     */
+    public static final String LUA_DECRESE_STOCK = "decreseStock";
+
+    /**
+     * 分段库存扣减 Lua 脚本名
+     */
+    public static final String LUA_DECRESE_SEGMENT_STOCK = "decreseSegmentStock";
+
+    /**
+     * 跨所有分段扣减 Lua 脚本名
+     */
+    public static final String LUA_DECREASE_ALL_SEGMENT_STOCK = "decreaseAllSegmentStock";
+
+    /**
+     * 购物车库存扣减 Lua 脚本名
+     */
+    public static final String LUA_DECREASE_CART_STOCK = "decreaseCartStock";
+
+    /**
+     * 合并扣减 Lua 脚本名
+     */
+    public static final String LUA_DECREASE_STOCK_BATCH = "decreaseStockBatch";
+
+    /**
+     * 库存租借 Lua 脚本名
+     */
+    public static final String LUA_LEASE_STOCK = "leaseStock";
+
+    /**
+     * 库存归还 Lua 脚本名
+     */
+    public static final String LUA_RETURN_STOCK = "returnStock";
+
+    /**
+     * 消息幂等占用 Lua 脚本名
+     */
+    public static final String LUA_CLAIM_MESSAGE = "claimMessage";
+
+    /**
+     * 消息幂等释放 Lua 脚本名
+     */
+    public static final String LUA_RELEASE_MESSAGE = "releaseMessage";
+
+    public static String stockKey(Integer productId) {
+        return String.valueOf(productId);
+    }
+
+    public static String stockInvalidKey(Integer productId) {
+        return PRODUCT_STOCK_INVALID_PREFIX + productId;
+    }
+
+    public static String stockLeaseKey(Integer productId) {
+        return PRODUCT_STOCK_LEASE_PREFIX + productId;
+    }
+
+    public static String decreaseMarkBucketKey(long bucket) {
+        return DECREASE_MARK_BUCKET_PREFIX + bucket;
+    }
+
+    public static String stockSegmentKey(Integer productId, int segment) {
+        return PRODUCT_STOCK_SEGMENT_PREFIX + productId + "_" + segment;
+    }
+}
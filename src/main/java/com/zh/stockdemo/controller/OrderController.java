@@ -1,16 +1,36 @@
 package com.zh.stockdemo.controller;
 
+import cn.hutool.core.collection.CollUtil;
+import com.alibaba.fastjson2.JSON;
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.zh.stockdemo.admission.AdmissionResult;
+import com.zh.stockdemo.admission.StockAdmissionGate;
+import com.zh.stockdemo.async.OrderTicketRegistry;
+import com.zh.stockdemo.cache.HotProductDetector;
+import com.zh.stockdemo.cache.SoldOutIndex;
+import com.zh.stockdemo.cache.StockLogStatusIndex;
+import com.zh.stockdemo.config.StockProperties;
+import com.zh.stockdemo.constant.StockRedisConstant;
+import com.zh.stockdemo.dto.CartCheckoutDTO;
+import com.zh.stockdemo.dto.CartItemDTO;
+import com.zh.stockdemo.dto.CursorPageDTO;
+import com.zh.stockdemo.dto.OrderTicketDTO;
 import com.zh.stockdemo.entity.StockLog;
+import com.zh.stockdemo.metrics.StockMetrics;
 import com.zh.stockdemo.mq.mq.event.DecreaseStockEvent;
+import com.zh.stockdemo.mq.mq.event.DecreaseStockItem;
 import com.zh.stockdemo.mq.mq.produce.DecreaseStockProducer;
 import com.zh.stockdemo.service.StockLogService;
 import com.zh.stockdemo.service.StockService;
+import io.micrometer.core.instrument.Timer;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.rocketmq.client.producer.SendResult;
 import org.apache.rocketmq.client.producer.SendStatus;
 import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.async.DeferredResult;
 import org.springframework.stereotype.Controller;
 import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
 import org.springframework.http.HttpStatus;
@@ -18,7 +38,12 @@ import org.springframework.http.ResponseEntity;
 import com.zh.stockdemo.service.OrderService;
 import com.zh.stockdemo.entity.Order;
 
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.stream.Collectors;
 
 /**
  * <p>
@@ -34,6 +59,8 @@ import java.util.Objects;
 @Slf4j
 public class OrderController {
 
+    private static final int MAX_SCROLL_SIZE = 500;
+
     private final OrderService orderService;
 
     private final StockLogService stockLogService;
@@ -44,26 +71,68 @@ public class OrderController {
 
     private final RedisTemplate redisTemplate;
 
+    private final SoldOutIndex soldOutIndex;
+
+    private final OrderTicketRegistry orderTicketRegistry;
+
+    private final ThreadPoolTaskExecutor orderSubmitExecutor;
+
+    private final StockProperties stockProperties;
+
+    private final StockLogStatusIndex stockLogStatusIndex;
+
+    private final HotProductDetector hotProductDetector;
+
+    private final StockAdmissionGate stockAdmissionGate;
+
+    private final StockMetrics stockMetrics;
+
     @PostMapping(value = "/create/{id}")
-    public ResponseEntity<Object> create(@PathVariable("id") Integer productId) {
+    public ResponseEntity<Object> create(@PathVariable("id") Integer productId, @RequestParam(defaultValue = "1") Integer amount) {
+        if (amount < 1) {
+            return new ResponseEntity<>("购买数量不合法", HttpStatus.BAD_REQUEST);
+        }
+
+        hotProductDetector.record(productId);
+
+        // 先检查本地售罄索引，已售罄直接返回
+        if (soldOutIndex.isSoldOut(productId)) {
+            return new ResponseEntity<>("库存不足", HttpStatus.OK);
+        }
+
+        // 按剩余库存准入，超出的请求不再访问 Redis、MySQL 和 RocketMQ
+        AdmissionResult admission = stockAdmissionGate.tryAcquire(productId, amount);
+        if (admission != AdmissionResult.ADMITTED) {
+            return admissionRejected(admission);
+        }
+        try {
+            return doCreate(productId, amount);
+        } finally {
+            stockAdmissionGate.release();
+        }
+    }
+
+    private ResponseEntity<Object> doCreate(Integer productId, Integer amount) {
         // 检查redis是否有库存0的标识
-        if (redisTemplate.hasKey("product_stock_invalid_" + productId)) {
+        if (isSoldOutInRedis(productId)) {
+            soldOutIndex.markLocal(productId);
             return new ResponseEntity<>("库存不足", HttpStatus.OK);
         }
 
-        // 先创建库存流水 这里默认一次只能扣减数量1的库存
+        // 先创建库存流水，一次扣减购买数量的库存，开启异步写入时只分配id不等待数据库
         StockLog stockLog = StockLog.builder()
-                .amount(1)
+                .amount(amount)
                 .productId(productId)
                 .status(0)
                 .build();
-        stockLogService.save(stockLog);
+        stockLogService.createStockLog(stockLog);
 
         // 发送事务消息
         try {
             DecreaseStockEvent decreaseStockEvent = DecreaseStockEvent.builder()
                     .productId(productId)
                     .stockLogId(stockLog.getId())
+                    .amount(amount)
                     .build();
             SendResult sendResult = decreaseStockProducer.sendMessageInTransaction(decreaseStockEvent);
             if (!Objects.equals(sendResult.getSendStatus(), SendStatus.SEND_OK)) {
@@ -77,6 +146,200 @@ public class OrderController {
     }
 
 
+    /**
+     * 异步下单，立即返回下单凭证，事务消息在后台线程发送，通过 /order/ticket/{ticket} 查询结果
+     */
+    @PostMapping(value = "/submit/{id}")
+    public ResponseEntity<Object> submit(@PathVariable("id") Integer productId, @RequestParam(defaultValue = "1") Integer amount) {
+        if (amount < 1) {
+            return new ResponseEntity<>("购买数量不合法", HttpStatus.BAD_REQUEST);
+        }
+        hotProductDetector.record(productId);
+        if (soldOutIndex.isSoldOut(productId)) {
+            return new ResponseEntity<>("库存不足", HttpStatus.OK);
+        }
+        AdmissionResult admission = stockAdmissionGate.tryAcquire(productId, amount);
+        if (admission != AdmissionResult.ADMITTED) {
+            return admissionRejected(admission);
+        }
+        try {
+            return doSubmit(productId, amount);
+        } finally {
+            stockAdmissionGate.release();
+        }
+    }
+
+    private ResponseEntity<Object> doSubmit(Integer productId, Integer amount) {
+        if (isSoldOutInRedis(productId)) {
+            soldOutIndex.markLocal(productId);
+            return new ResponseEntity<>("库存不足", HttpStatus.OK);
+        }
+
+        StockLog stockLog = StockLog.builder()
+                .amount(amount)
+                .productId(productId)
+                .status(0)
+                .build();
+        stockLogService.createStockLog(stockLog);
+
+        DecreaseStockEvent decreaseStockEvent = DecreaseStockEvent.builder()
+                .productId(productId)
+                .stockLogId(stockLog.getId())
+                .amount(amount)
+                .build();
+        try {
+            orderSubmitExecutor.execute(() -> sendInTransaction(decreaseStockEvent));
+        } catch (RejectedExecutionException e) {
+            rollbackTicket(decreaseStockEvent);
+            return new ResponseEntity<>("系统繁忙", HttpStatus.OK);
+        }
+
+        OrderTicketDTO orderTicket = OrderTicketDTO.builder()
+                .ticket(stockLog.getId())
+                .status(0)
+                .build();
+        return new ResponseEntity<>(orderTicket, HttpStatus.OK);
+    }
+
+    private boolean isSoldOutInRedis(Integer productId) {
+        Timer.Sample sample = stockMetrics.start();
+        boolean soldOut = Boolean.TRUE.equals(redisTemplate.hasKey(StockRedisConstant.stockInvalidKey(productId)));
+        stockMetrics.recordSoldOutCheck(sample, soldOut);
+        return soldOut;
+    }
+
+    private ResponseEntity<Object> admissionRejected(AdmissionResult admission) {
+        if (admission == AdmissionResult.SOLD_OUT) {
+            return new ResponseEntity<>("库存不足", HttpStatus.OK);
+        }
+        return new ResponseEntity<>("系统繁忙", HttpStatus.OK);
+    }
+
+    /**
+     * 查询下单凭证，本地事务未出结果时挂起请求，出结果或超时后返回
+     */
+    @GetMapping(value = "/ticket/{ticket}")
+    public DeferredResult<ResponseEntity<OrderTicketDTO>> ticket(@PathVariable("ticket") Integer ticket) {
+        DeferredResult<ResponseEntity<OrderTicketDTO>> deferredResult = new DeferredResult<>(stockProperties.getTicket().getPollTimeout().toMillis());
+        // 超时时以数据库中的状态为准，本地事务可能在其他节点执行
+        deferredResult.onTimeout(() -> deferredResult.setResult(ticketResponse(ticket, stockLogService.getById(ticket))));
+
+        StockLog stockLog = stockLogService.getById(ticket);
+        // 开启异步写入时流水可能还未落库，按初始化状态等待
+        boolean pending = stockLog == null ? stockProperties.getWriteBehind().isEnabled() : stockLog.getStatus() == 0;
+        if (!pending) {
+            deferredResult.setResult(ticketResponse(ticket, stockLog));
+            return deferredResult;
+        }
+        orderTicketRegistry.await(ticket, deferredResult);
+        // 注册后再查一次，避免注册前状态已经变更而错过通知
+        stockLog = stockLogService.getById(ticket);
+        if (stockLog != null && stockLog.getStatus() != 0) {
+            deferredResult.setResult(ticketResponse(ticket, stockLog));
+        }
+        return deferredResult;
+    }
+
+    private ResponseEntity<OrderTicketDTO> ticketResponse(Integer ticket, StockLog stockLog) {
+        if (stockLog == null) {
+            return new ResponseEntity<>(HttpStatus.NOT_FOUND);
+        }
+        OrderTicketDTO orderTicket = OrderTicketDTO.builder()
+                .ticket(ticket)
+                .status(stockLog.getStatus())
+                .build();
+        return new ResponseEntity<>(orderTicket, HttpStatus.OK);
+    }
+
+    private void sendInTransaction(DecreaseStockEvent decreaseStockEvent) {
+        try {
+            SendResult sendResult = decreaseStockProducer.sendMessageInTransaction(decreaseStockEvent);
+            if (!Objects.equals(sendResult.getSendStatus(), SendStatus.SEND_OK)) {
+                log.error("事务消息发送错误，请求参数：{}", decreaseStockEvent);
+                rollbackTicket(decreaseStockEvent);
+            }
+        } catch (Exception e) {
+            log.error("消息发送错误，请求参数：{}", decreaseStockEvent, e);
+            rollbackTicket(decreaseStockEvent);
+        }
+    }
+
+    /**
+     * 事务消息未发送成功时本地事务不会执行，只有仍为初始化状态的库存流水才置为回滚
+     */
+    private void rollbackTicket(DecreaseStockEvent decreaseStockEvent) {
+        Integer stockLogId = decreaseStockEvent.getStockLogId();
+        if (stockLogService.rollbackPending(decreaseStockEvent)) {
+            stockLogStatusIndex.record(stockLogId, 2);
+            orderTicketRegistry.complete(stockLogId, 2);
+        }
+    }
+
+    @PostMapping(value = "/checkout")
+    public ResponseEntity<Object> checkout(@RequestBody CartCheckoutDTO params) {
+        if (params == null || CollUtil.isEmpty(params.getItems())) {
+            return new ResponseEntity<>("购物车为空", HttpStatus.BAD_REQUEST);
+        }
+        // 合并同一商品的购买数量
+        Map<Integer, Integer> quantities = new LinkedHashMap<>();
+        for (CartItemDTO item : params.getItems()) {
+            if (item.getProductId() == null || item.getQuantity() == null || item.getQuantity() < 1) {
+                return new ResponseEntity<>("购买数量不合法", HttpStatus.BAD_REQUEST);
+            }
+            quantities.merge(item.getProductId(), item.getQuantity(), Integer::sum);
+        }
+        for (Integer productId : quantities.keySet()) {
+            hotProductDetector.record(productId);
+            if (soldOutIndex.isSoldOut(productId)) {
+                return new ResponseEntity<>("库存不足", HttpStatus.OK);
+            }
+        }
+
+        // 每个商品按购买数量准入，整个购物车占用一个并发数
+        AdmissionResult admission = stockAdmissionGate.tryAcquireAll(quantities);
+        if (admission != AdmissionResult.ADMITTED) {
+            return admissionRejected(admission);
+        }
+        try {
+            return doCheckout(quantities);
+        } finally {
+            stockAdmissionGate.release();
+        }
+    }
+
+    private ResponseEntity<Object> doCheckout(Map<Integer, Integer> quantities) {
+        List<DecreaseStockItem> items = quantities.entrySet().stream()
+                .map(each -> DecreaseStockItem.builder()
+                        .productId(each.getKey())
+                        .amount(each.getValue())
+                        .build())
+                .collect(Collectors.toList());
+
+        // 整个购物车只创建一条库存流水
+        StockLog stockLog = StockLog.builder()
+                .amount(quantities.values().stream().mapToInt(Integer::intValue).sum())
+                .items(JSON.toJSONString(items))
+                .status(0)
+                .build();
+        stockLogService.createStockLog(stockLog);
+
+        // 整个购物车只发送一条事务消息
+        try {
+            DecreaseStockEvent decreaseStockEvent = DecreaseStockEvent.builder()
+                    .stockLogId(stockLog.getId())
+                    .items(items)
+                    .build();
+            SendResult sendResult = decreaseStockProducer.sendMessageInTransaction(decreaseStockEvent);
+            if (!Objects.equals(sendResult.getSendStatus(), SendStatus.SEND_OK)) {
+                log.error("事务消息发送错误，请求参数items：{}", items);
+            }
+        } catch (Exception e) {
+            log.error("消息发送错误，请求参数：{}", items, e);
+        }
+
+        return new ResponseEntity<>("created successfully", HttpStatus.OK);
+    }
+
     @GetMapping(value = "/")
     public ResponseEntity<Page<Order>> list(@RequestParam(required = false) Integer current, @RequestParam(required = false) Integer pageSize) {
         if (current == null) {
@@ -89,6 +352,25 @@ public class OrderController {
         return new ResponseEntity<>(aPage, HttpStatus.OK);
     }
 
+    /**
+     * 按id游标分页，传入上一页返回的 nextId 获取下一页，不执行 count，翻到多深每页的代价都相同
+     */
+    @GetMapping(value = "/scroll")
+    public ResponseEntity<CursorPageDTO<Order>> scroll(@RequestParam(required = false) Integer lastId,
+                                                       @RequestParam(defaultValue = "10") Integer pageSize,
+                                                       @RequestParam(defaultValue = "false") boolean desc) {
+        if (pageSize < 1 || pageSize > MAX_SCROLL_SIZE) {
+            return new ResponseEntity<>(HttpStatus.BAD_REQUEST);
+        }
+        // 多查一条判断是否还有下一页
+        QueryWrapper<Order> wrapper = new QueryWrapper<Order>()
+                .gt(!desc && lastId != null, "id", lastId)
+                .lt(desc && lastId != null, "id", lastId)
+                .orderBy(true, !desc, "id")
+                .last("LIMIT " + (pageSize + 1));
+        return new ResponseEntity<>(CursorPageDTO.of(orderService.list(wrapper), pageSize, Order::getId), HttpStatus.OK);
+    }
+
     @GetMapping(value = "/{id}")
     public ResponseEntity<Order> getById(@PathVariable("id") String id) {
         return new ResponseEntity<>(orderService.getById(id), HttpStatus.OK);
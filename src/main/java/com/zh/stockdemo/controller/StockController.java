@@ -1,16 +1,24 @@
 package com.zh.stockdemo.controller;
 
+import com.zh.stockdemo.cache.EntityCacheManager;
+import com.zh.stockdemo.cache.HotProductDetector;
+import com.zh.stockdemo.cache.StockPreloader;
+import com.zh.stockdemo.constant.StockRedisConstant;
+import com.zh.stockdemo.dto.EntityCacheStatsDTO;
+import com.zh.stockdemo.dto.HotProductDTO;
+import com.zh.stockdemo.dto.StockDriftDTO;
+import com.zh.stockdemo.dto.StockPreloadResultDTO;
 import com.zh.stockdemo.mq.mq.event.DecreaseStockEvent;
 import com.zh.stockdemo.mq.mq.produce.DecreaseStockProducer;
+import com.zh.stockdemo.mq.mq.produce.SendMode;
+import com.zh.stockdemo.reconcile.StockReconciler;
+import com.zh.stockdemo.redis.RedisScriptRegistry;
 import com.zh.stockdemo.service.StockLogService;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.rocketmq.client.producer.SendResult;
 import org.apache.rocketmq.client.producer.SendStatus;
-import org.springframework.core.io.ClassPathResource;
 import org.springframework.data.redis.core.RedisTemplate;
-import org.springframework.data.redis.core.script.DefaultRedisScript;
-import org.springframework.scripting.support.ResourceScriptSource;
 import org.springframework.transaction.annotation.Transactional;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.stereotype.Controller;
@@ -19,7 +27,9 @@ import org.springframework.http.ResponseEntity;
 import com.zh.stockdemo.service.StockService;
 
 import java.util.Collections;
+import java.util.List;
 import java.util.Objects;
+import java.util.UUID;
 
 /**
  * <p>
@@ -44,35 +54,65 @@ public class StockController {
 
     @PostMapping(value = "/decreaseStock/{id}")
     @Transactional // 开启事务
-    public ResponseEntity<Object> decreaseStock(@PathVariable("id") Integer id) {
+    public ResponseEntity<Object> decreaseStock(@PathVariable("id") Integer id, @RequestParam(defaultValue = "1") Integer amount) {
+        if (amount < 1) {
+            return new ResponseEntity<>("购买数量不合法", HttpStatus.BAD_REQUEST);
+        }
+        hotProductDetector.record(id);
 
-        int result = stockService.decreaseStock(id, "");
+        // 每次请求都是一次新的扣减，使用随机标识，避免共用空标识后只有第一次请求生效
+        int result = stockService.decreaseStock(id, amount, UUID.randomUUID().toString(), System.currentTimeMillis());
         return result == 1 ? new ResponseEntity<>("decreaseStock successfully", HttpStatus.OK) : new ResponseEntity<>("decreaseStock failed", HttpStatus.OK);
     }
 
-    private static final String LUA_DECRESE_STOCK_PATH = "lua/decreseStock.lua";
-
     private final DecreaseStockProducer decreaseStockProducer;
 
-    @PostMapping(value = "/decreaseStockByRedis/{id}")
-    public ResponseEntity<Object> decreaseStockByRedis(@PathVariable("id") Integer id) {
+    private final RedisScriptRegistry redisScriptRegistry;
+
+    private final StockReconciler stockReconciler;
+
+    private final StockPreloader stockPreloader;
 
-        DefaultRedisScript<Long> redisScript = new DefaultRedisScript<>();
-        redisScript.setScriptSource(new ResourceScriptSource(new ClassPathResource(LUA_DECRESE_STOCK_PATH)));
-        redisScript.setResultType(Long.class);
+    private final EntityCacheManager entityCacheManager;
+
+    private final HotProductDetector hotProductDetector;
+
+    @PostMapping(value = "/decreaseStockByRedis/{id}")
+    public ResponseEntity<Object> decreaseStockByRedis(@PathVariable("id") Integer id, @RequestParam(defaultValue = "1") Integer amount,
+                                                       @RequestParam(defaultValue = "SYNC") SendMode mode) {
+        if (amount < 1) {
+            return new ResponseEntity<>("购买数量不合法", HttpStatus.BAD_REQUEST);
+        }
+        hotProductDetector.record(id);
 
         // 执行Lua脚本
-        Long redisResult = (Long) redisTemplate.execute(redisScript, Collections.singletonList("1"));
+        Long redisResult = redisScriptRegistry.execute(StockRedisConstant.LUA_DECRESE_STOCK, Collections.singletonList(StockRedisConstant.stockKey(id)), amount);
 
         if (redisResult == 1) {
             // 发送消息
             try {
                 DecreaseStockEvent decreaseStockEvent = DecreaseStockEvent.builder()
                         .productId(id)
+                        .amount(amount)
                         .build();
-                SendResult sendResult = decreaseStockProducer.sendMessage(decreaseStockEvent);
-                if (!Objects.equals(sendResult.getSendStatus(), SendStatus.SEND_OK)) {
-                    log.error("消息发送错误，请求参数：{}", id);
+                switch (mode) {
+                    case ASYNC:
+                        // 异步发送，结果在回调中记录，不阻塞请求线程
+                        decreaseStockProducer.asyncSendMessage(decreaseStockEvent).whenComplete((sendResult, ex) -> {
+                            if (ex == null && !Objects.equals(sendResult.getSendStatus(), SendStatus.SEND_OK)) {
+                                log.error("消息发送错误，请求参数：{}", id);
+                            }
+                        });
+                        break;
+                    case ONE_WAY:
+                        // 单向发送，不等待Broker响应，可能丢失消息，仅适用于可由对账补齐的场景
+                        decreaseStockProducer.sendOneWayMessage(decreaseStockEvent);
+                        break;
+                    default:
+                        SendResult sendResult = decreaseStockProducer.sendMessage(decreaseStockEvent);
+                        if (!Objects.equals(sendResult.getSendStatus(), SendStatus.SEND_OK)) {
+                            log.error("消息发送错误，请求参数：{}", id);
+                        }
                 }
             } catch (Exception e) {
                 log.error("消息发送错误，请求参数：{}", id, e);
@@ -83,4 +123,36 @@ public class StockController {
         return (redisResult == 1) ? new ResponseEntity<>("decreaseStock successfully", HttpStatus.OK) : new ResponseEntity<>("decreaseStock failed", HttpStatus.OK);
     }
 
+    /**
+     * 把 MySQL 库存预热到 Redis，overwrite 为 true 时覆盖已存在的库存，只应在停止下单后使用
+     */
+    @PostMapping(value = "/preload")
+    public ResponseEntity<StockPreloadResultDTO> preload(@RequestParam(defaultValue = "false") boolean overwrite) {
+        return new ResponseEntity<>(stockPreloader.preload(overwrite), HttpStatus.OK);
+    }
+
+    /**
+     * 最近一段时间对账发现的库存差异
+     */
+    @GetMapping(value = "/reconcile/drifts")
+    public ResponseEntity<List<StockDriftDTO>> reconcileDrifts() {
+        return new ResponseEntity<>(stockReconciler.getRecentDrifts(), HttpStatus.OK);
+    }
+
+    /**
+     * 订单、库存流水实体缓存的命中统计
+     */
+    @GetMapping(value = "/cache/stats")
+    public ResponseEntity<List<EntityCacheStatsDTO>> cacheStats() {
+        return new ResponseEntity<>(entityCacheManager.stats(), HttpStatus.OK);
+    }
+
+    /**
+     * 当前节点识别出的热点商品，按滑动窗口内访问次数倒序
+     */
+    @GetMapping(value = "/hot")
+    public ResponseEntity<List<HotProductDTO>> hotProducts(@RequestParam(defaultValue = "20") Integer limit) {
+        return new ResponseEntity<>(hotProductDetector.topHotProducts(limit), HttpStatus.OK);
+    }
+
 }
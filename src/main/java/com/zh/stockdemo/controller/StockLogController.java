@@ -1,5 +1,7 @@
 package com.zh.stockdemo.controller;
 
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.zh.stockdemo.dto.CursorPageDTO;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.stereotype.Controller;
 import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
@@ -21,6 +23,8 @@ import org.springframework.beans.factory.annotation.Autowired;
 @RequestMapping("/stock-log")
 public class StockLogController {
 
+    private static final int MAX_SCROLL_SIZE = 500;
+
 
     @Autowired
     private StockLogService stockLogService;
@@ -38,6 +42,25 @@ public class StockLogController {
         return new ResponseEntity<>(aPage, HttpStatus.OK);
     }
 
+    /**
+     * 按id游标分页，传入上一页返回的 nextId 获取下一页，不执行 count，翻到多深每页的代价都相同
+     */
+    @GetMapping(value = "/scroll")
+    public ResponseEntity<CursorPageDTO<StockLog>> scroll(@RequestParam(required = false) Integer lastId,
+                                                          @RequestParam(defaultValue = "10") Integer pageSize,
+                                                          @RequestParam(defaultValue = "false") boolean desc) {
+        if (pageSize < 1 || pageSize > MAX_SCROLL_SIZE) {
+            return new ResponseEntity<>(HttpStatus.BAD_REQUEST);
+        }
+        // 多查一条判断是否还有下一页
+        QueryWrapper<StockLog> wrapper = new QueryWrapper<StockLog>()
+                .gt(!desc && lastId != null, "id", lastId)
+                .lt(desc && lastId != null, "id", lastId)
+                .orderBy(true, !desc, "id")
+                .last("LIMIT " + (pageSize + 1));
+        return new ResponseEntity<>(CursorPageDTO.of(stockLogService.list(wrapper), pageSize, StockLog::getId), HttpStatus.OK);
+    }
+
     @GetMapping(value = "/{id}")
     public ResponseEntity<StockLog> getById(@PathVariable("id") String id) {
         return new ResponseEntity<>(stockLogService.getById(id), HttpStatus.OK);
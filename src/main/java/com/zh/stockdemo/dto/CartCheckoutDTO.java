@@ -0,0 +1,24 @@
+package com.zh.stockdemo.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+/**
+ * 购物车结算请求
+ *
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class CartCheckoutDTO {
+
+    /**
+     * 购物车商品
+     */
+    private List<CartItemDTO> items;
+}
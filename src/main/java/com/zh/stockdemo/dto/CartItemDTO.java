@@ -0,0 +1,27 @@
+package com.zh.stockdemo.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * 购物车商品
+ *
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class CartItemDTO {
+
+    /**
+     * 产品id
+     */
+    private Integer productId;
+
+    /**
+     * 购买数量
+     */
+    private Integer quantity;
+}
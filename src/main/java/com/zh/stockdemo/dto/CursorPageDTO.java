@@ -0,0 +1,52 @@
+package com.zh.stockdemo.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * 按id游标分页结果，不查询总数
+ *
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class CursorPageDTO<T> {
+
+    /**
+     * 本页数据
+     */
+    private List<T> records;
+
+    /**
+     * 下一页请求时传入的 lastId，没有下一页时为空
+     */
+    private Integer nextId;
+
+    /**
+     * 是否还有下一页
+     */
+    private Boolean hasMore;
+
+    /**
+     * 由多查一条的结果构造分页，rows 最多 size + 1 条
+     *
+     * @param rows     按游标顺序查询的 size + 1 条数据
+     * @param size     每页数量
+     * @param idGetter 读取记录id
+     */
+    public static <T> CursorPageDTO<T> of(List<T> rows, int size, Function<T, Integer> idGetter) {
+        boolean hasMore = rows.size() > size;
+        List<T> records = hasMore ? rows.subList(0, size) : rows;
+        return CursorPageDTO.<T>builder()
+                .records(records)
+                .nextId(hasMore ? idGetter.apply(records.get(records.size() - 1)) : null)
+                .hasMore(hasMore)
+                .build();
+    }
+}
@@ -0,0 +1,62 @@
+package com.zh.stockdemo.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * 实体缓存统计
+ *
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class EntityCacheStatsDTO {
+
+    /**
+     * 缓存名
+     */
+    private String name;
+
+    /**
+     * 本地缓存条数（估算）
+     */
+    private Long localSize;
+
+    /**
+     * 本地命中次数
+     */
+    private Long localHits;
+
+    /**
+     * 本地未命中次数
+     */
+    private Long localMisses;
+
+    /**
+     * 本地命中率
+     */
+    private Double localHitRate;
+
+    /**
+     * 本地因容量或过期淘汰的条数
+     */
+    private Long localEvictions;
+
+    /**
+     * Redis 命中次数
+     */
+    private Long redisHits;
+
+    /**
+     * Redis 未命中次数
+     */
+    private Long redisMisses;
+
+    /**
+     * 主动失效次数
+     */
+    private Long invalidations;
+}
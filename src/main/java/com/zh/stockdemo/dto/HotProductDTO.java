@@ -0,0 +1,32 @@
+package com.zh.stockdemo.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * 热点商品
+ *
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class HotProductDTO {
+
+    /**
+     * 产品id
+     */
+    private Integer productId;
+
+    /**
+     * 滑动窗口内访问次数的估计值
+     */
+    private Long count;
+
+    /**
+     * 热点标记过期时间
+     */
+    private Long hotUntil;
+}
@@ -0,0 +1,27 @@
+package com.zh.stockdemo.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * 异步下单凭证
+ *
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class OrderTicketDTO {
+
+    /**
+     * 下单凭证，即库存流水id
+     */
+    private Integer ticket;
+
+    /**
+     * 下单状态 0->处理中，1->下单成功，2->下单失败
+     */
+    private Integer status;
+}
@@ -0,0 +1,52 @@
+package com.zh.stockdemo.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * 库存对账差异
+ *
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class StockDriftDTO {
+
+    /**
+     * 产品id
+     */
+    private Integer productId;
+
+    /**
+     * mysql 库存
+     */
+    private Integer mysqlStock;
+
+    /**
+     * redis 库存，分段商品为各分段之和
+     */
+    private Long redisStock;
+
+    /**
+     * 初始化状态库存流水的数量之和
+     */
+    private Long pendingAmount;
+
+    /**
+     * 差异，mysql 库存 - redis 库存
+     */
+    private Long drift;
+
+    /**
+     * 是否已修复
+     */
+    private Boolean repaired;
+
+    /**
+     * 发现时间
+     */
+    private Long detectTime;
+}
@@ -0,0 +1,37 @@
+package com.zh.stockdemo.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * 库存预热结果
+ *
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class StockPreloadResultDTO {
+
+    /**
+     * 读取的商品数
+     */
+    private Integer scanned;
+
+    /**
+     * 写入 Redis 的商品数
+     */
+    private Integer loaded;
+
+    /**
+     * 清除的售罄标识数
+     */
+    private Integer soldOutCleared;
+
+    /**
+     * 耗时（毫秒）
+     */
+    private Long costMillis;
+}
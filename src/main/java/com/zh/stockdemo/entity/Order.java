@@ -26,7 +26,7 @@ public class Order implements Serializable {
     /**
      * 订单id
      */
-    @TableId(value = "id",type = IdType.AUTO)
+    @TableId(value = "id",type = IdType.ASSIGN_ID)
     private Integer id;
 
     /**
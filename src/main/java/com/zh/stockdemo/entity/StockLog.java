@@ -26,7 +26,7 @@ public class StockLog implements Serializable {
     /**
      * 库存id
      */
-    @TableId(value = "id",type = IdType.AUTO)
+    @TableId(value = "id",type = IdType.ASSIGN_ID)
     private Integer id;
 
     /**
@@ -44,6 +44,11 @@ public class StockLog implements Serializable {
      */
     private Integer status;
 
+    /**
+     * 购物车结算时的商品扣减明细（JSON），单商品下单时为空
+     */
+    private String items;
+
     public Integer getId() {
         return id;
     }
@@ -76,6 +81,14 @@ public class StockLog implements Serializable {
         this.status = status;
     }
 
+    public String getItems() {
+        return items;
+    }
+
+    public void setItems(String items) {
+        this.items = items;
+    }
+
     @Override
     public String toString() {
         return "StockLog{" +
@@ -83,6 +96,7 @@ public class StockLog implements Serializable {
         ", productId = " + productId +
         ", amount = " + amount +
         ", status = " + status +
+        ", items = " + items +
         "}";
     }
 }
@@ -0,0 +1,172 @@
+package com.zh.stockdemo.id;
+
+import com.zh.stockdemo.config.StockProperties;
+import com.zh.stockdemo.mapper.IdSegmentMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * 号段id分配器
+ * <p>
+ * 每次从 id_segment 表领取 step 个连续id，之后在内存中通过 CAS 依次分配，插入前即可拿到id，不再依赖数据库自增主键。
+ * 每个业务标识持有当前号段和下一个号段两个缓冲：当前号段消耗超过 prefetch-threshold 时由后台线程预先领取下一段，
+ * 当前号段用完时直接切换，分配线程不等待数据库。号段首次使用时以业务表当前最大id初始化，
+ * 同一张表的所有插入都必须走号段分配，否则自增id会与已领取未使用的号段冲突。
+ *
+ */
+@Slf4j
+@Component
+public class SegmentIdAllocator implements DisposableBean {
+
+    private final IdSegmentMapper idSegmentMapper;
+
+    private final StockProperties stockProperties;
+
+    /**
+     * 号段领取在独立事务中提交，不受调用方事务回滚影响，也不长时间持有号段表行锁
+     */
+    private final TransactionTemplate transactionTemplate;
+
+    private final ConcurrentHashMap<String, SegmentBuffer> buffers = new ConcurrentHashMap<>();
+
+    private final ExecutorService prefetchExecutor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "id-segment-prefetch");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public SegmentIdAllocator(IdSegmentMapper idSegmentMapper, StockProperties stockProperties, PlatformTransactionManager transactionManager) {
+        this.idSegmentMapper = idSegmentMapper;
+        this.stockProperties = stockProperties;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.transactionTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+    }
+
+    @Override
+    public void destroy() {
+        prefetchExecutor.shutdownNow();
+    }
+
+    /**
+     * 分配下一个id
+     *
+     * @param bizTag 业务标识，同时也是业务表名
+     */
+    public long nextId(String bizTag) {
+        SegmentBuffer buffer = buffers.computeIfAbsent(bizTag, each -> new SegmentBuffer());
+        while (true) {
+            Segment segment = buffer.current;
+            if (segment != null) {
+                long id = segment.value.getAndIncrement();
+                if (id <= segment.max) {
+                    if (id == segment.prefetchAt) {
+                        prefetch(bizTag, buffer);
+                    }
+                    return id;
+                }
+            }
+            switchSegment(bizTag, buffer, segment);
+        }
+    }
+
+    /**
+     * 当前号段用完后切换到下一个号段，只有一个线程执行切换，其他线程切换完成后重新分配
+     */
+    private void switchSegment(String bizTag, SegmentBuffer buffer, Segment exhausted) {
+        synchronized (buffer) {
+            if (buffer.current != exhausted) {
+                return;
+            }
+            CompletableFuture<Segment> next = buffer.next.getAndSet(null);
+            Segment segment = null;
+            if (next != null) {
+                try {
+                    segment = next.join();
+                } catch (Exception e) {
+                    log.warn("预取号段失败，同步领取，bizTag：{}", bizTag, e);
+                }
+            }
+            buffer.current = segment != null ? segment : fetchSegment(bizTag);
+        }
+    }
+
+    private void prefetch(String bizTag, SegmentBuffer buffer) {
+        CompletableFuture<Segment> next = new CompletableFuture<>();
+        if (!buffer.next.compareAndSet(null, next)) {
+            return;
+        }
+        try {
+            prefetchExecutor.execute(() -> {
+                try {
+                    next.complete(fetchSegment(bizTag));
+                } catch (Exception e) {
+                    next.completeExceptionally(e);
+                }
+            });
+        } catch (Exception e) {
+            next.completeExceptionally(e);
+        }
+    }
+
+    private Segment fetchSegment(String bizTag) {
+        StockProperties.IdSegment idSegment = stockProperties.getIdSegment();
+        int step = idSegment.getStep();
+        Long max = transactionTemplate.execute(status -> {
+            if (idSegmentMapper.increaseMaxId(bizTag, step) == 0) {
+                idSegmentMapper.initSegment(bizTag, step);
+                idSegmentMapper.increaseMaxId(bizTag, step);
+            }
+            return idSegmentMapper.selectMaxId(bizTag);
+        });
+        long first = max - step + 1;
+        return new Segment(first, max, first + (long) (step * idSegment.getPrefetchThreshold()));
+    }
+
+    private static class SegmentBuffer {
+
+        /**
+         * 正在分配的号段
+         */
+        private volatile Segment current;
+
+        /**
+         * 预取中或已预取好的下一个号段
+         */
+        private final AtomicReference<CompletableFuture<Segment>> next = new AtomicReference<>();
+    }
+
+    private static class Segment {
+
+        /**
+         * 下一个待分配的id
+         */
+        private final AtomicLong value;
+
+        /**
+         * 号段的最大id（含）
+         */
+        private final long max;
+
+        /**
+         * 分配到该id时开始预取下一个号段
+         */
+        private final long prefetchAt;
+
+        private Segment(long first, long max, long prefetchAt) {
+            this.value = new AtomicLong(first);
+            this.max = max;
+            this.prefetchAt = Math.min(prefetchAt, max);
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package com.zh.stockdemo.id;
+
+import com.baomidou.mybatisplus.core.incrementer.IdentifierGenerator;
+import com.baomidou.mybatisplus.core.metadata.TableInfoHelper;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.stereotype.Component;
+
+/**
+ * MyBatis-Plus 主键生成器
+ * <p>
+ * 主键类型为 ASSIGN_ID 的实体插入时从号段分配id，业务标识取实体对应的表名（去掉库名和反引号）。
+ * 号段id是 long，主键字段为 Integer 的实体超出 int 范围时直接失败，不截断为重复或负数的id。
+ *
+ */
+@Component
+public class SegmentIdentifierGenerator implements IdentifierGenerator {
+
+    private final SegmentIdAllocator segmentIdAllocator;
+
+    /**
+     * MyBatis-Plus 创建 SqlSessionFactory 时就会获取主键生成器，而号段分配器依赖的 Mapper 又需要 SqlSessionFactory，
+     * 这里延迟注入打破循环依赖
+     */
+    public SegmentIdentifierGenerator(@Lazy SegmentIdAllocator segmentIdAllocator) {
+        this.segmentIdAllocator = segmentIdAllocator;
+    }
+
+    @Override
+    public Number nextId(Object entity) {
+        String bizTag = bizTag(entity.getClass());
+        long id = segmentIdAllocator.nextId(bizTag);
+        if (id > Integer.MAX_VALUE && TableInfoHelper.getTableInfo(entity.getClass()).getKeyType() == Integer.class) {
+            throw new IllegalStateException("号段id超出int范围，bizTag：" + bizTag + "，id：" + id);
+        }
+        return id;
+    }
+
+    /**
+     * 实体对应的号段业务标识
+     */
+    public static String bizTag(Class<?> entityClass) {
+        String tableName = TableInfoHelper.getTableInfo(entityClass).getTableName().replace("`", "");
+        return tableName.substring(tableName.lastIndexOf('.') + 1);
+    }
+}
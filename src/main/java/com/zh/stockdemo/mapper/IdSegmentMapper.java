@@ -0,0 +1,24 @@
+package com.zh.stockdemo.mapper;
+
+import org.apache.ibatis.annotations.Param;
+
+/**
+ * <p>
+ *  号段表 Mapper 接口
+ * </p>
+ *
+ */
+public interface IdSegmentMapper {
+
+    /**
+     * 号段不存在时以业务表当前最大id初始化，已存在时忽略
+     *
+     * @param bizTag 业务标识，同时也是业务表名
+     * @param step   号段步长
+     */
+    int initSegment(@Param("bizTag") String bizTag, @Param("step") Integer step);
+
+    int increaseMaxId(@Param("bizTag") String bizTag, @Param("step") Integer step);
+
+    Long selectMaxId(@Param("bizTag") String bizTag);
+}
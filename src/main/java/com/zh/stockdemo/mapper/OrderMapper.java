@@ -2,6 +2,9 @@ package com.zh.stockdemo.mapper;
 
 import com.zh.stockdemo.entity.Order;
 import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import org.apache.ibatis.annotations.Param;
+
+import java.util.List;
 
 /**
  * <p>
@@ -13,4 +16,5 @@ import com.baomidou.mybatisplus.core.mapper.BaseMapper;
  */
 public interface OrderMapper extends BaseMapper<Order> {
 
+    int insertBatch(@Param("orders") List<Order> orders);
 }
@@ -2,6 +2,10 @@ package com.zh.stockdemo.mapper;
 
 import com.zh.stockdemo.entity.StockLog;
 import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import org.apache.ibatis.annotations.Param;
+
+import java.util.Collection;
+import java.util.List;
 
 /**
  * <p>
@@ -13,4 +17,23 @@ import com.baomidou.mybatisplus.core.mapper.BaseMapper;
  */
 public interface StockLogMapper extends BaseMapper<StockLog> {
 
+    /**
+     * 批量插入库存流水，id已存在的行忽略
+     */
+    int insertIgnoreBatch(@Param("stockLogs") Collection<StockLog> stockLogs);
+
+    /**
+     * 批量写入库存流水状态，流水还未写入时插入完整的行
+     */
+    int upsertStatusBatch(@Param("stockLogs") Collection<StockLog> stockLogs);
+
+    /**
+     * 按商品汇总初始化状态库存流水的数量，结果中 amount 为数量之和，购物车流水不计入，见 {@link #selectPendingCartLogs()}
+     */
+    List<StockLog> sumPendingAmount(@Param("productIds") Collection<Integer> productIds);
+
+    /**
+     * 查询初始化状态的购物车库存流水，只返回 id 和 items，各商品的数量在 items 中
+     */
+    List<StockLog> selectPendingCartLogs();
 }
@@ -2,6 +2,8 @@ package com.zh.stockdemo.mapper;
 
 import com.zh.stockdemo.entity.Stock;
 import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import org.apache.ibatis.annotations.Param;
+import org.apache.ibatis.cursor.Cursor;
 
 /**
  * <p>
@@ -13,5 +15,10 @@ import com.baomidou.mybatisplus.core.mapper.BaseMapper;
  */
 public interface StockMapper extends BaseMapper<Stock> {
 
-    int decreaseStock(Integer id);
+    int decreaseStock(@Param("id") Integer id, @Param("amount") Integer amount);
+
+    /**
+     * 流式读取所有商品库存，需在事务内遍历
+     */
+    Cursor<Stock> scanStock();
 }
@@ -0,0 +1,166 @@
+package com.zh.stockdemo.metrics;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.RequiredArgsConstructor;
+import org.apache.rocketmq.spring.core.RocketMQLocalTransactionState;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 下单链路指标
+ * <p>
+ * 每个阶段的耗时记录为带百分位直方图的 Timer，阶段结果作为 tag，通过 /actuator/prometheus 暴露，
+ * 可以用 histogram_quantile 按节点聚合 p99。tag 的取值都是有限的枚举，不会随商品或消息数增长。
+ *
+ */
+@Component
+@RequiredArgsConstructor
+public class StockMetrics {
+
+    /**
+     * 下单前检查 Redis 售罄标识
+     */
+    public static final String SOLD_OUT_CHECK = "stock.sold.out.check";
+
+    /**
+     * Redis 扣减库存，包括分段、租借和合并扣减
+     */
+    public static final String REDIS_DEDUCT = "stock.redis.deduct";
+
+    /**
+     * 扣减失败后补偿 Redis 库存的次数和数量
+     */
+    public static final String REDIS_COMPENSATION = "stock.redis.compensation";
+
+    public static final String REDIS_COMPENSATION_AMOUNT = "stock.redis.compensation.amount";
+
+    /**
+     * 下单时写入初始化状态的库存流水
+     */
+    public static final String STOCK_LOG_INSERT = "stock.log.insert";
+
+    /**
+     * 发送消息，事务消息包含本地事务的执行时间
+     */
+    public static final String MQ_SEND = "stock.mq.send";
+
+    /**
+     * 事务消息的本地事务：扣减 Redis 库存、创建订单、更新库存流水
+     */
+    public static final String LOCAL_TRANSACTION = "stock.tx.local";
+
+    /**
+     * Broker 事务回查次数
+     */
+    public static final String TRANSACTION_CHECK = "stock.tx.check";
+
+    /**
+     * 消费者同步扣减 MySQL 库存，包括幂等判断和事务提交
+     */
+    public static final String DB_UPDATE = "stock.db.update";
+
+    private static final Duration MIN_EXPECTED = Duration.ofNanos(100_000L);
+
+    private static final Duration MAX_EXPECTED = Duration.ofSeconds(10L);
+
+    private final MeterRegistry meterRegistry;
+
+    /**
+     * 名称和 tag 拼接 -> 已注册的 Timer/Counter，避免热点路径每次都构建 Meter.Id 查找注册表
+     */
+    private final ConcurrentHashMap<String, Timer> timers = new ConcurrentHashMap<>();
+
+    private final ConcurrentHashMap<String, Counter> counters = new ConcurrentHashMap<>();
+
+    public Timer.Sample start() {
+        return Timer.start(meterRegistry);
+    }
+
+    public void recordSoldOutCheck(Timer.Sample sample, boolean soldOut) {
+        sample.stop(timer(SOLD_OUT_CHECK, "result", soldOut ? "sold_out" : "in_stock"));
+    }
+
+    /**
+     * @param type   single->单商品，cart->购物车
+     * @param result Lua 脚本返回值，null 表示调用异常
+     */
+    public void recordRedisDeduct(Timer.Sample sample, String type, Long result) {
+        sample.stop(timer(REDIS_DEDUCT, "type", type, "result", deductResult(result)));
+    }
+
+    public void recordRedisCompensation(int amount) {
+        counter(REDIS_COMPENSATION).increment();
+        counter(REDIS_COMPENSATION_AMOUNT).increment(amount);
+    }
+
+    public void recordStockLogInsert(Timer.Sample sample, boolean writeBehind) {
+        sample.stop(timer(STOCK_LOG_INSERT, "mode", writeBehind ? "write_behind" : "sync"));
+    }
+
+    /**
+     * @param mode   sync、transaction、async、one_way、batch
+     * @param status SendStatus，发送异常时为 exception
+     */
+    public void recordSend(Timer.Sample sample, String event, String mode, String status) {
+        sample.stop(timer(MQ_SEND, "event", event, "mode", mode, "status", status));
+    }
+
+    public void recordLocalTransaction(Timer.Sample sample, boolean cart, RocketMQLocalTransactionState state) {
+        sample.stop(timer(LOCAL_TRANSACTION, "type", cart ? "cart" : "single", "state", state.name().toLowerCase()));
+    }
+
+    public void recordTransactionCheck(RocketMQLocalTransactionState state) {
+        counter(TRANSACTION_CHECK, "state", state.name().toLowerCase()).increment();
+    }
+
+    /**
+     * @param type   single、cart、batch
+     * @param result updated->扣减了库存，skipped->重复消息或库存不足，error->异常
+     */
+    public void recordDbUpdate(Timer.Sample sample, String type, String result) {
+        sample.stop(timer(DB_UPDATE, "type", type, "result", result));
+    }
+
+    private Timer timer(String name, String... tags) {
+        return timers.computeIfAbsent(key(name, tags), key -> Timer.builder(name)
+                .tags(tags)
+                .publishPercentileHistogram()
+                .minimumExpectedValue(MIN_EXPECTED)
+                .maximumExpectedValue(MAX_EXPECTED)
+                .register(meterRegistry));
+    }
+
+    private Counter counter(String name, String... tags) {
+        return counters.computeIfAbsent(key(name, tags), key -> Counter.builder(name)
+                .tags(tags)
+                .register(meterRegistry));
+    }
+
+    private static String key(String name, String... tags) {
+        return tags.length == 0 ? name : name + '|' + String.join("|", tags);
+    }
+
+    private static String deductResult(Long result) {
+        if (result == null) {
+            return "error";
+        }
+        switch (result.intValue()) {
+            case 1:
+                return "success";
+            case 0:
+                return "sold_out";
+            case -1:
+                return "missing";
+            case -2:
+                return "insufficient";
+            case -3:
+                return "invalid";
+            default:
+                return "unknown";
+        }
+    }
+}
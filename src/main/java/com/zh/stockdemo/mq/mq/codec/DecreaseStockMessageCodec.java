@@ -0,0 +1,223 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.zh.stockdemo.mq.mq.codec;
+
+import com.alibaba.fastjson2.JSON;
+import com.alibaba.fastjson2.TypeReference;
+import com.zh.stockdemo.config.StockProperties;
+import com.zh.stockdemo.mq.mq.domain.MessageWrapper;
+import com.zh.stockdemo.mq.mq.event.DecreaseStockEvent;
+import com.zh.stockdemo.mq.mq.event.DecreaseStockItem;
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Component;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * 库存扣减消息紧凑二进制编解码器
+ * <p>
+ * 格式：魔数(1) 版本(1) 标志位(1) 时间戳(8) uuid(16 或 变长字符串) keys(变长字符串)
+ * productId stockLogId amount(zigzag 变长整数，可空字段由标志位表示) 明细数(变长整数) [productId amount]...
+ * <p>
+ * 解码时首字节不是魔数则按 JSON 解析，兼容升级前发送的历史消息；关闭 stock.codec.binary-enabled 时编码也使用 JSON，
+ * 用于滚动升级期间旧版本消费者仍在线的场景。
+ *
+ */
+@Component
+@RequiredArgsConstructor
+public class DecreaseStockMessageCodec implements MessageCodec<MessageWrapper<DecreaseStockEvent>> {
+
+    private static final TypeReference<MessageWrapper<DecreaseStockEvent>> JSON_TYPE = new TypeReference<MessageWrapper<DecreaseStockEvent>>() {
+    };
+
+    /**
+     * 魔数，JSON 消息首字节为 '{'，不会与之冲突
+     */
+    private static final byte MAGIC = (byte) 0xD5;
+
+    private static final byte VERSION = 1;
+
+    private static final int FLAG_UUID_BINARY = 1;
+
+    private static final int FLAG_PRODUCT_ID = 1 << 1;
+
+    private static final int FLAG_STOCK_LOG_ID = 1 << 2;
+
+    private static final int FLAG_AMOUNT = 1 << 3;
+
+    private static final int FLAG_ITEMS = 1 << 4;
+
+    private static final int FLAG_TIMESTAMP = 1 << 5;
+
+    private final StockProperties stockProperties;
+
+    @Override
+    public byte[] encode(MessageWrapper<DecreaseStockEvent> message) {
+        if (!stockProperties.getCodec().isBinaryEnabled()) {
+            return JSON.toJSONBytes(message);
+        }
+        DecreaseStockEvent event = message.getMessage();
+        UUID uuid = parseUuid(message.getUuid());
+        int flags = 0;
+        flags |= uuid != null ? FLAG_UUID_BINARY : 0;
+        flags |= event.getProductId() != null ? FLAG_PRODUCT_ID : 0;
+        flags |= event.getStockLogId() != null ? FLAG_STOCK_LOG_ID : 0;
+        flags |= event.getAmount() != null ? FLAG_AMOUNT : 0;
+        flags |= event.getItems() != null ? FLAG_ITEMS : 0;
+        flags |= message.getTimestamp() != null ? FLAG_TIMESTAMP : 0;
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream(64);
+        out.write(MAGIC);
+        out.write(VERSION);
+        out.write(flags);
+        if (message.getTimestamp() != null) {
+            writeLong(out, message.getTimestamp());
+        }
+        if (uuid != null) {
+            writeLong(out, uuid.getMostSignificantBits());
+            writeLong(out, uuid.getLeastSignificantBits());
+        } else {
+            writeString(out, message.getUuid());
+        }
+        writeString(out, message.getKeys());
+        if (event.getProductId() != null) {
+            writeVarInt(out, event.getProductId());
+        }
+        if (event.getStockLogId() != null) {
+            writeVarInt(out, event.getStockLogId());
+        }
+        if (event.getAmount() != null) {
+            writeVarInt(out, event.getAmount());
+        }
+        if (event.getItems() != null) {
+            writeVarInt(out, event.getItems().size());
+            for (DecreaseStockItem each : event.getItems()) {
+                writeVarInt(out, each.getProductId());
+                writeVarInt(out, each.getAmount());
+            }
+        }
+        return out.toByteArray();
+    }
+
+    @Override
+    public MessageWrapper<DecreaseStockEvent> decode(byte[] body) {
+        if (body.length == 0 || body[0] != MAGIC) {
+            return JSON.parseObject(body, JSON_TYPE.getType());
+        }
+        ByteBuffer in = ByteBuffer.wrap(body);
+        in.get();
+        byte version = in.get();
+        if (version != VERSION) {
+            throw new IllegalArgumentException("不支持的库存消息版本：" + version);
+        }
+        int flags = in.get();
+        Long timestamp = (flags & FLAG_TIMESTAMP) != 0 ? in.getLong() : null;
+        String uuid = (flags & FLAG_UUID_BINARY) != 0 ? new UUID(in.getLong(), in.getLong()).toString() : readString(in);
+        String keys = readString(in);
+
+        DecreaseStockEvent event = new DecreaseStockEvent();
+        event.setProductId((flags & FLAG_PRODUCT_ID) != 0 ? readVarInt(in) : null);
+        event.setStockLogId((flags & FLAG_STOCK_LOG_ID) != 0 ? readVarInt(in) : null);
+        event.setAmount((flags & FLAG_AMOUNT) != 0 ? readVarInt(in) : null);
+        if ((flags & FLAG_ITEMS) != 0) {
+            int size = readVarInt(in);
+            List<DecreaseStockItem> items = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                items.add(new DecreaseStockItem(readVarInt(in), readVarInt(in)));
+            }
+            event.setItems(items);
+        }
+        // keys 带非空校验，通过无参构造创建的消息 keys 可能为空，与 JSON 解码一样只在非空时设置
+        MessageWrapper<DecreaseStockEvent> message = new MessageWrapper<>();
+        if (keys != null) {
+            message.setKeys(keys);
+        }
+        message.setMessage(event);
+        message.setUuid(uuid);
+        message.setTimestamp(timestamp);
+        return message;
+    }
+
+    private static UUID parseUuid(String uuid) {
+        // 只有标准格式的 uuid 才按 16 字节写入，保证解码后字符串与原值一致
+        if (uuid == null || uuid.length() != 36) {
+            return null;
+        }
+        try {
+            UUID parsed = UUID.fromString(uuid);
+            return parsed.toString().equals(uuid) ? parsed : null;
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private static void writeLong(ByteArrayOutputStream out, long value) {
+        for (int shift = 56; shift >= 0; shift -= 8) {
+            out.write((int) (value >>> shift));
+        }
+    }
+
+    private static void writeVarInt(ByteArrayOutputStream out, int value) {
+        int zigzag = (value << 1) ^ (value >> 31);
+        while ((zigzag & ~0x7F) != 0) {
+            out.write((zigzag & 0x7F) | 0x80);
+            zigzag >>>= 7;
+        }
+        out.write(zigzag);
+    }
+
+    private static int readVarInt(ByteBuffer in) {
+        int zigzag = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = in.get();
+            zigzag |= (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return (zigzag >>> 1) ^ -(zigzag & 1);
+    }
+
+    /**
+     * 变长字符串，长度写 -1 表示 null
+     */
+    private static void writeString(ByteArrayOutputStream out, String value) {
+        if (value == null) {
+            writeVarInt(out, -1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeVarInt(out, bytes.length);
+        out.write(bytes, 0, bytes.length);
+    }
+
+    private static String readString(ByteBuffer in) {
+        int length = readVarInt(in);
+        if (length < 0) {
+            return null;
+        }
+        String value = new String(in.array(), in.position(), length, StandardCharsets.UTF_8);
+        in.position(in.position() + length);
+        return value;
+    }
+}
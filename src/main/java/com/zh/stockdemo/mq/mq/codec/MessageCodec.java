@@ -0,0 +1,42 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.zh.stockdemo.mq.mq.codec;
+
+/**
+ * 消息体编解码器，生产者和消费者通过同一个编解码器读写消息字节
+ *
+ * @param <T> 消息体类型
+ */
+public interface MessageCodec<T> {
+
+    /**
+     * 编码为消息字节
+     *
+     * @param message 消息体
+     * @return 消息字节
+     */
+    byte[] encode(T message);
+
+    /**
+     * 从消息字节解码
+     *
+     * @param body 消息字节
+     * @return 消息体
+     */
+    T decode(byte[] body);
+}
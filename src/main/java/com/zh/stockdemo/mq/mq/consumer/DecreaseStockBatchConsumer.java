@@ -0,0 +1,108 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.zh.stockdemo.mq.mq.consumer;
+
+import com.zh.stockdemo.config.StockProperties;
+import com.zh.stockdemo.constant.StockMQConstant;
+import com.zh.stockdemo.metrics.StockMetrics;
+import com.zh.stockdemo.mq.mq.codec.DecreaseStockMessageCodec;
+import com.zh.stockdemo.mq.mq.domain.MessageWrapper;
+import com.zh.stockdemo.mq.mq.event.DecreaseStockEvent;
+import com.zh.stockdemo.service.StockService;
+import io.micrometer.core.instrument.Timer;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.rocketmq.client.consumer.DefaultMQPushConsumer;
+import org.apache.rocketmq.client.consumer.listener.ConsumeConcurrentlyStatus;
+import org.apache.rocketmq.client.consumer.listener.MessageListenerConcurrently;
+import org.apache.rocketmq.common.message.MessageExt;
+import org.apache.rocketmq.spring.annotation.RocketMQMessageListener;
+import org.apache.rocketmq.spring.core.RocketMQListener;
+import org.apache.rocketmq.spring.core.RocketMQPushConsumerLifecycleListener;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * 库存同步批量消费者
+ * <p>
+ * 按时间窗口和批量大小拉取一批消息，同一批内按商品合并扣减数量，每个商品只执行一次 stock_num - N 的更新，
+ * 热点商品不再逐条竞争同一行锁。每条消息仍按 uuid 做幂等判断。
+ *
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+@ConditionalOnProperty(name = "stock.consumer.batch-enabled", havingValue = "true")
+@RocketMQMessageListener(
+        topic = StockMQConstant.STOCK_TOPIC_KEY,
+        selectorExpression = StockMQConstant.STOCK_DEREASE_STOCK_TAG_KEY,
+        consumerGroup = StockMQConstant.STOCK_DEREASE_STOCK_CG_KEY
+)
+public class DecreaseStockBatchConsumer implements RocketMQListener<MessageExt>, RocketMQPushConsumerLifecycleListener {
+
+    private final StockService stockService;
+
+    private final StockProperties stockProperties;
+
+    private final DecreaseStockMessageCodec decreaseStockMessageCodec;
+
+    private final StockMetrics stockMetrics;
+
+    @Override
+    public void prepareStart(DefaultMQPushConsumer consumer) {
+        StockProperties.Consumer consumerProperties = stockProperties.getConsumer();
+        consumer.setConsumeMessageBatchMaxSize(consumerProperties.getBatchSize());
+        consumer.setPullBatchSize(consumerProperties.getBatchSize());
+        consumer.setPullInterval(consumerProperties.getBatchWindow().toMillis());
+        // 替换默认的逐条消费监听器
+        consumer.registerMessageListener((MessageListenerConcurrently) (messages, context) -> {
+            try {
+                consumeBatch(messages);
+                return ConsumeConcurrentlyStatus.CONSUME_SUCCESS;
+            } catch (Exception e) {
+                log.error("库存批量同步到mysql失败，消息数：{}", messages.size(), e);
+                return ConsumeConcurrentlyStatus.RECONSUME_LATER;
+            }
+        });
+    }
+
+    @Override
+    public void onMessage(MessageExt message) {
+        consumeBatch(Collections.singletonList(message));
+    }
+
+    private void consumeBatch(List<MessageExt> messages) {
+        List<MessageWrapper<DecreaseStockEvent>> messageWrappers = messages.stream()
+                .map(each -> decreaseStockMessageCodec.decode(each.getBody()))
+                .collect(Collectors.toList());
+        Timer.Sample sample = stockMetrics.start();
+        int consumed;
+        try {
+            consumed = stockService.decreaseStockBatch(messageWrappers);
+        } catch (RuntimeException e) {
+            stockMetrics.recordDbUpdate(sample, "batch", "error");
+            throw e;
+        }
+        stockMetrics.recordDbUpdate(sample, "batch", consumed > 0 ? "updated" : "skipped");
+        log.info("库存批量同步到mysql，消息数：{}，实际扣减消息数：{}", messages.size(), consumed);
+    }
+}
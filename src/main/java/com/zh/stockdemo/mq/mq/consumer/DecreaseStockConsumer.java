@@ -17,14 +17,20 @@
 
 package com.zh.stockdemo.mq.mq.consumer;
 
+import cn.hutool.core.collection.CollUtil;
 import com.zh.stockdemo.constant.StockMQConstant;
+import com.zh.stockdemo.metrics.StockMetrics;
+import com.zh.stockdemo.mq.mq.codec.DecreaseStockMessageCodec;
 import com.zh.stockdemo.mq.mq.domain.MessageWrapper;
 import com.zh.stockdemo.mq.mq.event.DecreaseStockEvent;
 import com.zh.stockdemo.service.StockService;
+import io.micrometer.core.instrument.Timer;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.apache.rocketmq.common.message.MessageExt;
 import org.apache.rocketmq.spring.annotation.RocketMQMessageListener;
 import org.apache.rocketmq.spring.core.RocketMQListener;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.stereotype.Component;
 import org.springframework.transaction.annotation.Transactional;
 
@@ -35,23 +41,36 @@ import org.springframework.transaction.annotation.Transactional;
 @Slf4j
 @Component
 @RequiredArgsConstructor
+@ConditionalOnProperty(name = "stock.consumer.batch-enabled", havingValue = "false", matchIfMissing = true)
 @RocketMQMessageListener(
         topic = StockMQConstant.STOCK_TOPIC_KEY,
         selectorExpression = StockMQConstant.STOCK_DEREASE_STOCK_TAG_KEY,
         consumerGroup = StockMQConstant.STOCK_DEREASE_STOCK_CG_KEY
 )
-public class DecreaseStockConsumer implements RocketMQListener<MessageWrapper<DecreaseStockEvent>> {
+public class DecreaseStockConsumer implements RocketMQListener<MessageExt> {
 
     private final StockService stockService;
 
+    private final DecreaseStockMessageCodec decreaseStockMessageCodec;
+
+    private final StockMetrics stockMetrics;
+
     @Override
-    public void onMessage(MessageWrapper<DecreaseStockEvent> message) {
+    public void onMessage(MessageExt messageExt) {
+        // 直接读取原始字节，二进制和历史 JSON 消息都由编解码器处理
+        MessageWrapper<DecreaseStockEvent> message = decreaseStockMessageCodec.decode(messageExt.getBody());
         DecreaseStockEvent decreaseStockEvent = message.getMessage();
         Integer productId = decreaseStockEvent.getProductId();
+        boolean cart = CollUtil.isNotEmpty(decreaseStockEvent.getItems());
+        Timer.Sample sample = stockMetrics.start();
         try {
-            stockService.decreaseStock(productId, message.getUuid());
+            int updated = cart
+                    ? stockService.decreaseCartStock(decreaseStockEvent.getItems(), message.getUuid(), message.getTimestamp())
+                    : stockService.decreaseStock(productId, decreaseStockEvent.getAmount(), message.getUuid(), message.getTimestamp());
+            stockMetrics.recordDbUpdate(sample, cart ? "cart" : "single", updated > 0 ? "updated" : "skipped");
         } catch (Exception e) {
-            log.error("库存同步到mysql失败，productId:{}", productId, e);
+            stockMetrics.recordDbUpdate(sample, cart ? "cart" : "single", "error");
+            log.error("库存同步到mysql失败，productId:{}，items:{}", productId, decreaseStockEvent.getItems(), e);
             throw e;
         }
     }
@@ -22,6 +22,8 @@ import lombok.Builder;
 import lombok.Data;
 import lombok.NoArgsConstructor;
 
+import java.util.List;
+
 
 /**
  * 库存事件
@@ -43,4 +45,15 @@ public final class DecreaseStockEvent {
      */
     private Integer stockLogId;
 
+    /**
+     * 扣减数量，兼容没有该字段的历史消息默认为1
+     */
+    @Builder.Default
+    private Integer amount = 1;
+
+    /**
+     * 购物车结算时的商品扣减明细，非空时忽略 productId 和 amount
+     */
+    private List<DecreaseStockItem> items;
+
 }
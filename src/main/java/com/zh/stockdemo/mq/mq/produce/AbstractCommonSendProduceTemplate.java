@@ -19,13 +19,20 @@ package com.zh.stockdemo.mq.mq.produce;
 
 import cn.hutool.core.util.StrUtil;
 import com.alibaba.fastjson2.JSON;
+import com.zh.stockdemo.metrics.StockMetrics;
+import io.micrometer.core.instrument.Timer;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.apache.rocketmq.client.producer.SendCallback;
 import org.apache.rocketmq.client.producer.SendResult;
 import org.apache.rocketmq.spring.core.RocketMQTemplate;
 import org.springframework.messaging.Message;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * RocketMQ 抽象公共发送消息组件
@@ -35,8 +42,15 @@ import java.util.Optional;
 @RequiredArgsConstructor
 public abstract class AbstractCommonSendProduceTemplate<T> {
 
+    /**
+     * 发送异常时指标的 status 取值
+     */
+    private static final String SEND_EXCEPTION = "EXCEPTION";
+
     private final RocketMQTemplate rocketMQTemplate;
 
+    private final StockMetrics stockMetrics;
+
     /**
      * 构建消息发送事件基础扩充属性实体
      *
@@ -63,19 +77,18 @@ public abstract class AbstractCommonSendProduceTemplate<T> {
     public SendResult sendMessage(T messageSendEvent) {
         BaseSendExtendDTO baseSendExtendDTO = buildBaseSendExtendParam(messageSendEvent);
         SendResult sendResult;
+        Timer.Sample sample = stockMetrics.start();
         try {
-            StringBuilder destinationBuilder = StrUtil.builder().append(baseSendExtendDTO.getTopic());
-            if (StrUtil.isNotBlank(baseSendExtendDTO.getTag())) {
-                destinationBuilder.append(":").append(baseSendExtendDTO.getTag());
-            }
             sendResult = rocketMQTemplate.syncSend(
-                    destinationBuilder.toString(),
+                    buildDestination(baseSendExtendDTO),
                     buildMessage(messageSendEvent, baseSendExtendDTO),
                     baseSendExtendDTO.getSentTimeout(),
                     Optional.ofNullable(baseSendExtendDTO.getDelayLevel()).orElse(0)
             );
+            stockMetrics.recordSend(sample, baseSendExtendDTO.getEventName(), "sync", sendResult.getSendStatus().name());
             log.info("[{}] 消息发送结果：{}，消息ID：{}，消息Keys：{}", baseSendExtendDTO.getEventName(), sendResult.getSendStatus(), sendResult.getMsgId(), baseSendExtendDTO.getKeys());
         } catch (Throwable ex) {
+            stockMetrics.recordSend(sample, baseSendExtendDTO.getEventName(), "sync", SEND_EXCEPTION);
             log.error("[{}] 消息发送失败，消息体：{}", baseSendExtendDTO.getEventName(), JSON.toJSONString(messageSendEvent), ex);
             throw ex;
         }
@@ -91,21 +104,126 @@ public abstract class AbstractCommonSendProduceTemplate<T> {
     public SendResult sendMessageInTransaction(T messageSendEvent) {
         BaseSendExtendDTO baseSendExtendDTO = buildBaseSendExtendParam(messageSendEvent);
         SendResult sendResult;
+        // 事务消息在发送线程上执行本地事务，耗时包含本地事务
+        Timer.Sample sample = stockMetrics.start();
         try {
-            StringBuilder destinationBuilder = StrUtil.builder().append(baseSendExtendDTO.getTopic());
-            if (StrUtil.isNotBlank(baseSendExtendDTO.getTag())) {
-                destinationBuilder.append(":").append(baseSendExtendDTO.getTag());
-            }
             sendResult = rocketMQTemplate.sendMessageInTransaction(
-                    destinationBuilder.toString(),
+                    buildDestination(baseSendExtendDTO),
                     buildMessage(messageSendEvent, baseSendExtendDTO),
                     null
             );
+            stockMetrics.recordSend(sample, baseSendExtendDTO.getEventName(), "transaction", sendResult.getSendStatus().name());
             log.info("[{}] 消息发送结果：{}，消息ID：{}，消息Keys：{}", baseSendExtendDTO.getEventName(), sendResult.getSendStatus(), sendResult.getMsgId(), baseSendExtendDTO.getKeys());
         } catch (Throwable ex) {
+            stockMetrics.recordSend(sample, baseSendExtendDTO.getEventName(), "transaction", SEND_EXCEPTION);
             log.error("[{}] 消息发送失败，消息体：{}", baseSendExtendDTO.getEventName(), JSON.toJSONString(messageSendEvent), ex);
             throw ex;
         }
         return sendResult;
     }
+
+    /**
+     * 消息事件异步发送，不阻塞调用线程
+     *
+     * @param messageSendEvent 消息发送事件
+     * @return 消息发送结果，发送失败时异常结束
+     */
+    public CompletableFuture<SendResult> asyncSendMessage(T messageSendEvent) {
+        BaseSendExtendDTO baseSendExtendDTO = buildBaseSendExtendParam(messageSendEvent);
+        CompletableFuture<SendResult> future = new CompletableFuture<>();
+        Timer.Sample sample = stockMetrics.start();
+        try {
+            rocketMQTemplate.asyncSend(
+                    buildDestination(baseSendExtendDTO),
+                    buildMessage(messageSendEvent, baseSendExtendDTO),
+                    new SendCallback() {
+                        @Override
+                        public void onSuccess(SendResult sendResult) {
+                            stockMetrics.recordSend(sample, baseSendExtendDTO.getEventName(), "async", sendResult.getSendStatus().name());
+                            log.info("[{}] 消息发送结果：{}，消息ID：{}，消息Keys：{}", baseSendExtendDTO.getEventName(), sendResult.getSendStatus(), sendResult.getMsgId(), baseSendExtendDTO.getKeys());
+                            future.complete(sendResult);
+                        }
+
+                        @Override
+                        public void onException(Throwable ex) {
+                            stockMetrics.recordSend(sample, baseSendExtendDTO.getEventName(), "async", SEND_EXCEPTION);
+                            log.error("[{}] 消息发送失败，消息体：{}", baseSendExtendDTO.getEventName(), JSON.toJSONString(messageSendEvent), ex);
+                            future.completeExceptionally(ex);
+                        }
+                    },
+                    baseSendExtendDTO.getSentTimeout(),
+                    Optional.ofNullable(baseSendExtendDTO.getDelayLevel()).orElse(0)
+            );
+        } catch (Throwable ex) {
+            stockMetrics.recordSend(sample, baseSendExtendDTO.getEventName(), "async", SEND_EXCEPTION);
+            log.error("[{}] 消息发送失败，消息体：{}", baseSendExtendDTO.getEventName(), JSON.toJSONString(messageSendEvent), ex);
+            future.completeExceptionally(ex);
+        }
+        return future;
+    }
+
+    /**
+     * 消息事件单向发送，不等待 Broker 响应，不保证送达
+     *
+     * @param messageSendEvent 消息发送事件
+     */
+    public void sendOneWayMessage(T messageSendEvent) {
+        BaseSendExtendDTO baseSendExtendDTO = buildBaseSendExtendParam(messageSendEvent);
+        Timer.Sample sample = stockMetrics.start();
+        try {
+            rocketMQTemplate.sendOneWay(
+                    buildDestination(baseSendExtendDTO),
+                    buildMessage(messageSendEvent, baseSendExtendDTO)
+            );
+            stockMetrics.recordSend(sample, baseSendExtendDTO.getEventName(), "one_way", "SENT");
+        } catch (Throwable ex) {
+            stockMetrics.recordSend(sample, baseSendExtendDTO.getEventName(), "one_way", SEND_EXCEPTION);
+            log.error("[{}] 消息发送失败，消息体：{}", baseSendExtendDTO.getEventName(), JSON.toJSONString(messageSendEvent), ex);
+            throw ex;
+        }
+    }
+
+    /**
+     * 消息事件批量发送，同一主题和标签的多个事件打包为一个 RocketMQ 批量消息
+     *
+     * @param messageSendEvents 消息发送事件，必须属于同一主题和标签，不支持延迟消息
+     * @return 消息发送返回结果
+     */
+    public SendResult sendBatchMessage(Collection<T> messageSendEvents) {
+        if (messageSendEvents == null || messageSendEvents.isEmpty()) {
+            throw new IllegalArgumentException("批量发送的消息不能为空");
+        }
+        String destination = null;
+        BaseSendExtendDTO baseSendExtendDTO = null;
+        List<Message<?>> messages = new ArrayList<>(messageSendEvents.size());
+        for (T messageSendEvent : messageSendEvents) {
+            baseSendExtendDTO = buildBaseSendExtendParam(messageSendEvent);
+            String eachDestination = buildDestination(baseSendExtendDTO);
+            if (destination != null && !destination.equals(eachDestination)) {
+                throw new IllegalArgumentException("批量发送的消息必须属于同一主题和标签");
+            }
+            destination = eachDestination;
+            messages.add(buildMessage(messageSendEvent, baseSendExtendDTO));
+        }
+        SendResult sendResult;
+        Timer.Sample sample = stockMetrics.start();
+        try {
+            sendResult = rocketMQTemplate.syncSend(destination, messages, baseSendExtendDTO.getSentTimeout());
+            stockMetrics.recordSend(sample, baseSendExtendDTO.getEventName(), "batch", sendResult.getSendStatus().name());
+            log.info("[{}] 批量消息发送结果：{}，消息ID：{}，消息数：{}", baseSendExtendDTO.getEventName(), sendResult.getSendStatus(), sendResult.getMsgId(), messages.size());
+        } catch (Throwable ex) {
+            stockMetrics.recordSend(sample, baseSendExtendDTO.getEventName(), "batch", SEND_EXCEPTION);
+            log.error("[{}] 批量消息发送失败，消息体：{}", baseSendExtendDTO.getEventName(), JSON.toJSONString(messageSendEvents), ex);
+            throw ex;
+        }
+        return sendResult;
+    }
+
+    private String buildDestination(BaseSendExtendDTO baseSendExtendDTO) {
+        StringBuilder destinationBuilder = StrUtil.builder().append(baseSendExtendDTO.getTopic());
+        if (StrUtil.isNotBlank(baseSendExtendDTO.getTag())) {
+            destinationBuilder.append(":").append(baseSendExtendDTO.getTag());
+        }
+        return destinationBuilder.toString();
+    }
 }
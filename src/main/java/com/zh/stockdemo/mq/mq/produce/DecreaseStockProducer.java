@@ -19,6 +19,8 @@ package com.zh.stockdemo.mq.mq.produce;
 
 import cn.hutool.core.util.StrUtil;
 import com.zh.stockdemo.constant.StockMQConstant;
+import com.zh.stockdemo.metrics.StockMetrics;
+import com.zh.stockdemo.mq.mq.codec.DecreaseStockMessageCodec;
 import com.zh.stockdemo.mq.mq.domain.MessageWrapper;
 import com.zh.stockdemo.mq.mq.event.DecreaseStockEvent;
 import lombok.extern.slf4j.Slf4j;
@@ -42,19 +44,23 @@ public class DecreaseStockProducer extends AbstractCommonSendProduceTemplate<Dec
 
     private final ConfigurableEnvironment environment;
 
-    public DecreaseStockProducer(@Autowired RocketMQTemplate rocketMQTemplate, @Autowired ConfigurableEnvironment environment) {
-        super(rocketMQTemplate);
+    private final DecreaseStockMessageCodec decreaseStockMessageCodec;
+
+    public DecreaseStockProducer(@Autowired RocketMQTemplate rocketMQTemplate, @Autowired ConfigurableEnvironment environment,
+                                 @Autowired DecreaseStockMessageCodec decreaseStockMessageCodec, @Autowired StockMetrics stockMetrics) {
+        super(rocketMQTemplate, stockMetrics);
         this.environment = environment;
+        this.decreaseStockMessageCodec = decreaseStockMessageCodec;
     }
 
     @Override
     protected BaseSendExtendDTO buildBaseSendExtendParam(DecreaseStockEvent messageSendEvent) {
         return BaseSendExtendDTO.builder()
                 .eventName("库存同步到mysql")
-                .keys(String.valueOf(messageSendEvent.getProductId()))
+                .keys(messageSendEvent.getProductId() != null ? String.valueOf(messageSendEvent.getProductId()) : "cart_" + messageSendEvent.getStockLogId())
                 .topic(environment.resolvePlaceholders(StockMQConstant.STOCK_TOPIC_KEY))
                 .tag(environment.resolvePlaceholders(StockMQConstant.STOCK_DEREASE_STOCK_TAG_KEY))
-                .sentTimeout(2000L)
+                .sentTimeout(environment.getProperty("rocketmq.producer.send-message-timeout", Long.class, 2000L))
                 .build();
     }
 
@@ -62,7 +68,8 @@ public class DecreaseStockProducer extends AbstractCommonSendProduceTemplate<Dec
     protected Message<?> buildMessage(DecreaseStockEvent messageSendEvent, BaseSendExtendDTO requestParam) {
         String keys = StrUtil.isEmpty(requestParam.getKeys()) ? UUID.randomUUID().toString() : requestParam.getKeys();
         return MessageBuilder
-                .withPayload(new MessageWrapper(requestParam.getKeys(), messageSendEvent))
+                // 直接发送编码后的字节，RocketMQTemplate 不再做 JSON 转换
+                .withPayload(decreaseStockMessageCodec.encode(new MessageWrapper<>(requestParam.getKeys(), messageSendEvent)))
                 .setHeader(MessageConst.PROPERTY_KEYS, keys)
                 .setHeader(MessageConst.PROPERTY_TAGS, requestParam.getTag())
                 .build();
@@ -1,13 +1,16 @@
 package com.zh.stockdemo.mq.mq.produce;
 
-import com.alibaba.fastjson2.JSON;
-import com.alibaba.fastjson2.TypeReference;
-import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
-import com.zh.stockdemo.entity.StockLog;
+import cn.hutool.core.collection.CollUtil;
+import com.zh.stockdemo.async.OrderTicketRegistry;
+import com.zh.stockdemo.cache.StockLogStatusIndex;
+import com.zh.stockdemo.config.StockProperties;
+import com.zh.stockdemo.metrics.StockMetrics;
+import com.zh.stockdemo.mq.mq.codec.DecreaseStockMessageCodec;
 import com.zh.stockdemo.mq.mq.domain.MessageWrapper;
 import com.zh.stockdemo.mq.mq.event.DecreaseStockEvent;
 import com.zh.stockdemo.service.OrderService;
 import com.zh.stockdemo.service.StockLogService;
+import io.micrometer.core.instrument.Timer;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.rocketmq.spring.annotation.RocketMQTransactionListener;
@@ -16,6 +19,8 @@ import org.apache.rocketmq.spring.core.RocketMQLocalTransactionState;
 import org.springframework.messaging.Message;
 import org.springframework.transaction.support.TransactionTemplate;
 
+import java.util.Optional;
+
 @Slf4j
 @RocketMQTransactionListener
 @RequiredArgsConstructor
@@ -27,41 +32,71 @@ public class StockStatusCheckerListener implements RocketMQLocalTransactionListe
 
     private final TransactionTemplate transactionTemplate;
 
+    private final OrderTicketRegistry orderTicketRegistry;
+
+    private final DecreaseStockMessageCodec decreaseStockMessageCodec;
+
+    private final StockLogStatusIndex stockLogStatusIndex;
+
+    private final StockProperties stockProperties;
+
+    private final StockMetrics stockMetrics;
+
     @Override
     public RocketMQLocalTransactionState executeLocalTransaction(Message message, Object arg) {
+        Timer.Sample sample = stockMetrics.start();
         log.info("message: {}, args: {}", message, arg);
-        TypeReference<MessageWrapper<DecreaseStockEvent>> typeReference = new TypeReference<MessageWrapper<DecreaseStockEvent>>() {};
-        MessageWrapper<DecreaseStockEvent> messageWrapper = JSON.parseObject(new String((byte[]) message.getPayload()), typeReference);
+        MessageWrapper<DecreaseStockEvent> messageWrapper = decreaseStockMessageCodec.decode((byte[]) message.getPayload());
         DecreaseStockEvent decreaseStockEvent = messageWrapper.getMessage();
         log.info("decreaseStockEvent info : {}", decreaseStockEvent);
         try {
-            orderService.createOrder(decreaseStockEvent.getProductId(), decreaseStockEvent.getStockLogId());
+            if (CollUtil.isNotEmpty(decreaseStockEvent.getItems())) {
+                orderService.createCartOrder(decreaseStockEvent.getStockLogId(), decreaseStockEvent.getItems());
+            } else {
+                orderService.createOrder(decreaseStockEvent.getProductId(), decreaseStockEvent.getStockLogId(), decreaseStockEvent.getAmount());
+            }
         } catch (Exception e) {
             log.error("插入订单失败, decreaseStockEvent info : {}", decreaseStockEvent, e);
             // 触发回查
             //设置对应的stockLog为回滚状态
-            StockLog stockLog = stockLogService.getOne(new QueryWrapper<StockLog>().eq("id", decreaseStockEvent.getStockLogId()));
-            stockLog.setStatus(2);
-            stockLogService.updateById(stockLog);
+            stockLogService.upsertStatus(decreaseStockEvent, 2);
+            stockLogStatusIndex.record(decreaseStockEvent.getStockLogId(), 2);
+            orderTicketRegistry.complete(decreaseStockEvent.getStockLogId(), 2);
+            stockMetrics.recordLocalTransaction(sample, CollUtil.isNotEmpty(decreaseStockEvent.getItems()), RocketMQLocalTransactionState.ROLLBACK);
             return RocketMQLocalTransactionState.ROLLBACK;
         }
+        orderTicketRegistry.complete(decreaseStockEvent.getStockLogId(), 1);
+        stockMetrics.recordLocalTransaction(sample, CollUtil.isNotEmpty(decreaseStockEvent.getItems()), RocketMQLocalTransactionState.COMMIT);
         return RocketMQLocalTransactionState.COMMIT;
     }
 
     @Override
     public RocketMQLocalTransactionState checkLocalTransaction(Message message) {
+        RocketMQLocalTransactionState state = doCheckLocalTransaction(message);
+        stockMetrics.recordTransactionCheck(state);
+        return state;
+    }
+
+    private RocketMQLocalTransactionState doCheckLocalTransaction(Message message) {
         log.info("message: {}, args: {}", message);
-        MessageWrapper<DecreaseStockEvent> messageWrapper = (MessageWrapper) message.getPayload();
+        // 回查时消息体同样是原始字节
+        MessageWrapper<DecreaseStockEvent> messageWrapper = decreaseStockMessageCodec.decode((byte[]) message.getPayload());
         DecreaseStockEvent decreaseStockEvent = messageWrapper.getMessage();
-        StockLog stockLog = stockLogService.getOne(new QueryWrapper<StockLog>().eq("id", decreaseStockEvent.getStockLogId()));
-        if (stockLog == null) {
+        // 优先从本地状态索引读取，未命中时批量查询数据库
+        Integer status = stockLogStatusIndex.getStatus(decreaseStockEvent.getStockLogId());
+        if (status == null) {
+            // 本地事务和回滚凭证都会写入流水，超时仍不存在说明本地事务没有执行过
+            long elapsed = System.currentTimeMillis() - Optional.ofNullable(messageWrapper.getTimestamp()).orElse(System.currentTimeMillis());
+            if (elapsed > stockProperties.getWriteBehind().getMissingRollbackAfter().toMillis()) {
+                return RocketMQLocalTransactionState.ROLLBACK;
+            }
             return RocketMQLocalTransactionState.UNKNOWN;
         }
         // 已经被扣减了库存
-        if (stockLog.getStatus().intValue() == 1) {
+        if (status == 1) {
             return RocketMQLocalTransactionState.COMMIT;
             // 初始化状态
-        } else if (stockLog.getStatus().intValue() == 0) {
+        } else if (status == 0) {
             return RocketMQLocalTransactionState.UNKNOWN;
         }
         return RocketMQLocalTransactionState.ROLLBACK;
@@ -0,0 +1,292 @@
+package com.zh.stockdemo.reconcile;
+
+import com.alibaba.fastjson2.JSON;
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.zh.stockdemo.config.StockProperties;
+import com.zh.stockdemo.constant.StockRedisConstant;
+import com.zh.stockdemo.dto.StockDriftDTO;
+import com.zh.stockdemo.entity.Stock;
+import com.zh.stockdemo.entity.StockLog;
+import com.zh.stockdemo.mapper.StockLogMapper;
+import com.zh.stockdemo.mapper.StockMapper;
+import com.zh.stockdemo.mq.mq.event.DecreaseStockItem;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.serializer.StringRedisSerializer;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Redis 与 MySQL 库存对账
+ * <p>
+ * 按 id 游标分块读取 stock 表，每块一次 pipeline 读取对应的 Redis 库存，一次查询汇总初始化状态的库存流水，
+ * 内存占用只与块大小有关。购物车流水没有商品id，每次调度读取一次初始化状态的购物车流水，按明细累加到各商品。每次调度处理到时间预算为止，下次从游标处继续，一轮结束后间隔 pass-interval 再开始下一轮。
+ * <p>
+ * 正常情况下 Redis 先扣减、MySQL 由消费者随后扣减，因此 0 <= MySQL - Redis，差值来自处理中的流水和未消费的消息。
+ * 差值超出初始化流水之和或为负数，且相邻两轮观察到的差值相同（排除消费延迟）时记录为差异。
+ * <p>
+ * 修复是单向的：开启修复时只把高于 MySQL 的 Redis 库存调低。Redis 偏高会导致超卖，而 MySQL 是库存扣减的最终结果，
+ * 按差值调低是安全的；Redis 偏低可能来自消息丢失，也可能来自补偿失败或未归还的租借库存，无法判断应该以哪边为准，
+ * 调高可能造成超卖，因此只记录差异，由人工确认后处理。分段商品的差值无法确定落在哪个分段，同样只记录。
+ * <p>
+ * 有节点持有租借库存的商品（Redis 租借 hash 不为空，见 {@link com.zh.stockdemo.cache.StockLeaseManager}）
+ * 有部分库存暂存在节点本地，本轮跳过；租借记录是所有节点可见的，不依赖本节点是否把该商品识别为热点。
+ *
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class StockReconciler {
+
+    private final StockMapper stockMapper;
+
+    private final StockLogMapper stockLogMapper;
+
+    private final RedisTemplate redisTemplate;
+
+    private final StockProperties stockProperties;
+
+    private final String lockToken = UUID.randomUUID().toString();
+
+    /**
+     * 本轮已处理到的 stock.id
+     */
+    private int cursor;
+
+    private long nextPassAt;
+
+    /**
+     * 上一轮观察到的疑似差异，productId -> 差值
+     */
+    private Map<Integer, Long> previousSuspects = new HashMap<>();
+
+    private Map<Integer, Long> currentSuspects = new HashMap<>();
+
+    private final Deque<StockDriftDTO> recentDrifts = new ArrayDeque<>();
+
+    @Scheduled(fixedDelay = 1000L)
+    public void reconcile() {
+        StockProperties.Reconcile reconcile = stockProperties.getReconcile();
+        if (!reconcile.isEnabled() || (cursor == 0 && System.currentTimeMillis() < nextPassAt) || !tryLock()) {
+            return;
+        }
+        long deadline = System.currentTimeMillis() + reconcile.getTickBudget().toMillis();
+        try {
+            // 购物车流水不按商品存储，每次调度读取一次，本次处理的各块共用
+            Map<Integer, Long> pendingCartAmounts = readPendingCartAmounts();
+            do {
+                List<Stock> stocks = stockMapper.selectList(new QueryWrapper<Stock>()
+                        .select("id", "product_id", "stock_num")
+                        .gt("id", cursor)
+                        .orderByAsc("id")
+                        .last("LIMIT " + reconcile.getChunkSize()));
+                if (!stocks.isEmpty()) {
+                    reconcileChunk(stocks, pendingCartAmounts);
+                    cursor = stocks.get(stocks.size() - 1).getId();
+                }
+                if (stocks.size() < reconcile.getChunkSize()) {
+                    finishPass();
+                    return;
+                }
+            } while (System.currentTimeMillis() < deadline);
+        } catch (Exception e) {
+            log.error("库存对账异常，cursor：{}", cursor, e);
+        }
+    }
+
+    /**
+     * 最近发现的库存差异
+     */
+    public synchronized List<StockDriftDTO> getRecentDrifts() {
+        return new ArrayList<>(recentDrifts);
+    }
+
+    private void reconcileChunk(List<Stock> stocks, Map<Integer, Long> pendingCartAmounts) {
+        List<Stock> candidates = stocks.stream()
+                .filter(each -> each.getProductId() != null && each.getStockNum() != null)
+                .collect(Collectors.toList());
+        Set<Integer> leasedProducts = readLeasedProducts(candidates);
+        candidates.removeIf(each -> leasedProducts.contains(each.getProductId()));
+        if (candidates.isEmpty()) {
+            return;
+        }
+        List<Long> redisStocks = readRedisStocks(candidates);
+        Map<Integer, Long> pendingAmounts = stockLogMapper.sumPendingAmount(candidates.stream().map(Stock::getProductId).collect(Collectors.toList()))
+                .stream()
+                .collect(Collectors.toMap(StockLog::getProductId, each -> each.getAmount().longValue()));
+        for (int i = 0; i < candidates.size(); i++) {
+            Long redisStock = redisStocks.get(i);
+            if (redisStock == null) {
+                // Redis 中没有该商品库存，由库存预热负责加载
+                continue;
+            }
+            Stock stock = candidates.get(i);
+            long pendingAmount = pendingAmounts.getOrDefault(stock.getProductId(), 0L)
+                    + pendingCartAmounts.getOrDefault(stock.getProductId(), 0L);
+            long drift = stock.getStockNum() - redisStock;
+            if (drift >= 0 && drift <= pendingAmount) {
+                continue;
+            }
+            Long previousDrift = previousSuspects.get(stock.getProductId());
+            if (previousDrift != null && previousDrift == drift) {
+                if (report(stock, redisStock, pendingAmount, drift)) {
+                    continue;
+                }
+            }
+            // 未修复的差异继续跟踪，下一轮仍然相同时再次记录
+            if (currentSuspects.size() < stockProperties.getReconcile().getMaxTracked()) {
+                currentSuspects.put(stock.getProductId(), drift);
+            }
+        }
+    }
+
+    /**
+     * 汇总初始化状态的购物车流水中各商品的数量，productId -> 数量之和
+     */
+    private Map<Integer, Long> readPendingCartAmounts() {
+        Map<Integer, Long> pendingCartAmounts = new HashMap<>();
+        for (StockLog stockLog : stockLogMapper.selectPendingCartLogs()) {
+            for (DecreaseStockItem item : JSON.parseArray(stockLog.getItems(), DecreaseStockItem.class)) {
+                if (item.getProductId() != null && item.getAmount() != null) {
+                    pendingCartAmounts.merge(item.getProductId(), item.getAmount().longValue(), Long::sum);
+                }
+            }
+        }
+        return pendingCartAmounts;
+    }
+
+    /**
+     * pipeline 读取一批商品的租借记录，返回有节点持有租借库存的商品，分段商品不租借
+     */
+    private Set<Integer> readLeasedProducts(List<Stock> stocks) {
+        StockProperties.Segment segment = stockProperties.getSegment();
+        List<Stock> leasable = stocks.stream()
+                .filter(each -> !segment.isSegmented(each.getProductId()))
+                .collect(Collectors.toList());
+        if (!stockProperties.getLease().isEnabled() || leasable.isEmpty()) {
+            return Collections.emptySet();
+        }
+        List<Object> sizes = redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (Stock stock : leasable) {
+                connection.hashCommands().hLen(StringRedisSerializer.UTF_8.serialize(StockRedisConstant.stockLeaseKey(stock.getProductId())));
+            }
+            return null;
+        });
+        Set<Integer> leasedProducts = new HashSet<>();
+        for (int i = 0; i < leasable.size(); i++) {
+            Object size = sizes.get(i);
+            if (size instanceof Number && ((Number) size).longValue() > 0) {
+                leasedProducts.add(leasable.get(i).getProductId());
+            }
+        }
+        return leasedProducts;
+    }
+
+    /**
+     * pipeline 读取一批商品的 Redis 库存，分段商品累加所有分段，key 不存在时为 null
+     */
+    private List<Long> readRedisStocks(List<Stock> stocks) {
+        StockProperties.Segment segment = stockProperties.getSegment();
+        List<Object> values = redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (Stock stock : stocks) {
+                for (String key : stockKeys(stock.getProductId(), segment)) {
+                    connection.stringCommands().get(StringRedisSerializer.UTF_8.serialize(key));
+                }
+            }
+            return null;
+        });
+        List<Long> redisStocks = new ArrayList<>(stocks.size());
+        int index = 0;
+        for (Stock stock : stocks) {
+            Long sum = null;
+            for (int i = 0; i < stockKeys(stock.getProductId(), segment).size(); i++) {
+                Object value = values.get(index++);
+                if (value != null) {
+                    sum = (sum == null ? 0L : sum) + Long.parseLong(value.toString());
+                }
+            }
+            redisStocks.add(sum);
+        }
+        return redisStocks;
+    }
+
+    private List<String> stockKeys(Integer productId, StockProperties.Segment segment) {
+        if (!segment.isSegmented(productId)) {
+            return Collections.singletonList(StockRedisConstant.stockKey(productId));
+        }
+        List<String> keys = new ArrayList<>(segment.getCount());
+        for (int i = 0; i < segment.getCount(); i++) {
+            keys.add(StockRedisConstant.stockSegmentKey(productId, i));
+        }
+        return keys;
+    }
+
+    /**
+     * 记录差异，开启修复时只修复 Redis 偏高的差异，Redis 偏低的差异只记录，原因见类注释
+     *
+     * @return 是否已修复
+     */
+    private boolean report(Stock stock, Long redisStock, long pendingAmount, long drift) {
+        boolean repaired = false;
+        // 只修复未分段商品 Redis 偏高的情况，按差值 DECRBY，不覆盖期间并发扣减的结果
+        if (drift < 0 && stockProperties.getReconcile().isRepair() && !stockProperties.getSegment().isSegmented(stock.getProductId())) {
+            redisTemplate.opsForValue().decrement(StockRedisConstant.stockKey(stock.getProductId()), -drift);
+            repaired = true;
+        }
+        log.warn("库存对账差异，productId：{}，mysql：{}，redis：{}，处理中：{}，差值：{}，已修复：{}",
+                stock.getProductId(), stock.getStockNum(), redisStock, pendingAmount, drift, repaired);
+        StockDriftDTO stockDrift = StockDriftDTO.builder()
+                .productId(stock.getProductId())
+                .mysqlStock(stock.getStockNum())
+                .redisStock(redisStock)
+                .pendingAmount(pendingAmount)
+                .drift(drift)
+                .repaired(repaired)
+                .detectTime(System.currentTimeMillis())
+                .build();
+        synchronized (this) {
+            recentDrifts.addFirst(stockDrift);
+            while (recentDrifts.size() > stockProperties.getReconcile().getMaxReported()) {
+                recentDrifts.removeLast();
+            }
+        }
+        return repaired;
+    }
+
+    private void finishPass() {
+        cursor = 0;
+        nextPassAt = System.currentTimeMillis() + stockProperties.getReconcile().getPassInterval().toMillis();
+        previousSuspects = currentSuspects;
+        currentSuspects = new HashMap<>();
+    }
+
+    /**
+     * 多节点部署时只有持有锁的节点对账，避免重复修复
+     */
+    private boolean tryLock() {
+        long ttl = stockProperties.getReconcile().getPassInterval().toMillis() * 2;
+        if (Boolean.TRUE.equals(redisTemplate.opsForValue().setIfAbsent(StockRedisConstant.STOCK_RECONCILE_LOCK, lockToken, ttl, TimeUnit.MILLISECONDS))) {
+            return true;
+        }
+        if (lockToken.equals(redisTemplate.opsForValue().get(StockRedisConstant.STOCK_RECONCILE_LOCK))) {
+            redisTemplate.expire(StockRedisConstant.STOCK_RECONCILE_LOCK, ttl, TimeUnit.MILLISECONDS);
+            return true;
+        }
+        return false;
+    }
+}
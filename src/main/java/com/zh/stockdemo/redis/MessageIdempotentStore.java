@@ -0,0 +1,85 @@
+package com.zh.stockdemo.redis;
+
+import com.zh.stockdemo.config.StockProperties;
+import com.zh.stockdemo.constant.StockRedisConstant;
+import org.springframework.stereotype.Component;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 消息消费幂等存储
+ * <p>
+ * 按消息发送时间把 uuid 记录到时间桶 hash 中，一次 Lua 调用完成判断和占用，没有先查后写的竞态；
+ * 整个桶按保留时间统一过期，不再为每条消息单独创建带过期时间的 key。
+ * <p>
+ * 本地只记录本节点最近确认消费过的 uuid，命中时直接判定为重复消息；未命中仍以 Redis 为准，
+ * 因为同一条消息的重投可能被消费组内其他节点处理过。
+ * <p>
+ * 不在 Redis 前加布隆过滤器：未见过的 uuid 正是需要写入占用标识的消息，无论过滤器如何判断都要执行一次 Lua 调用；
+ * 节点本地的过滤器也无法证明其他节点没有消费过，只能用于命中重复消息，而这部分已由本地最近记录覆盖。
+ *
+ */
+@Component
+public class MessageIdempotentStore {
+
+    private final RedisScriptRegistry redisScriptRegistry;
+
+    private final StockProperties stockProperties;
+
+    /**
+     * 本节点最近确认消费过的 uuid，按插入顺序淘汰
+     */
+    private final Map<String, Boolean> recentClaims;
+
+    public MessageIdempotentStore(RedisScriptRegistry redisScriptRegistry, StockProperties stockProperties) {
+        this.redisScriptRegistry = redisScriptRegistry;
+        this.stockProperties = stockProperties;
+        int localCapacity = stockProperties.getIdempotent().getLocalCapacity();
+        this.recentClaims = Collections.synchronizedMap(new LinkedHashMap<String, Boolean>(16, 0.75f, false) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+                return size() > localCapacity;
+            }
+        });
+    }
+
+    /**
+     * 占用消息幂等标识
+     *
+     * @param uuid      消息唯一标识
+     * @param timestamp 消息发送时间，决定所在时间桶，为空时使用当前时间
+     * @return true->首次消费，false->消息已消费过
+     */
+    public boolean claim(String uuid, Long timestamp) {
+        if (recentClaims.containsKey(uuid)) {
+            return false;
+        }
+        StockProperties.Idempotent idempotent = stockProperties.getIdempotent();
+        long expireSeconds = idempotent.getRetention().plus(idempotent.getBucketSize()).getSeconds();
+        Long result = redisScriptRegistry.execute(StockRedisConstant.LUA_CLAIM_MESSAGE,
+                Arrays.asList(bucketKey(timestamp), StockRedisConstant.DECREASE_MARK_PREFIX + uuid),
+                uuid, expireSeconds);
+        // 无论本次占用成功还是已被占用，该消息都已确定消费过
+        recentClaims.put(uuid, Boolean.TRUE);
+        return result != null && result == 1L;
+    }
+
+    /**
+     * 释放消息幂等标识，消费失败需要重试时调用
+     *
+     * @param uuid      消息唯一标识
+     * @param timestamp 消息发送时间，需与占用时一致
+     */
+    public void release(String uuid, Long timestamp) {
+        recentClaims.remove(uuid);
+        redisScriptRegistry.execute(StockRedisConstant.LUA_RELEASE_MESSAGE, Collections.singletonList(bucketKey(timestamp)), uuid);
+    }
+
+    private String bucketKey(Long timestamp) {
+        long sendTime = timestamp != null ? timestamp : System.currentTimeMillis();
+        return StockRedisConstant.decreaseMarkBucketKey(sendTime / stockProperties.getIdempotent().getBucketSize().toMillis());
+    }
+}
@@ -0,0 +1,118 @@
+package com.zh.stockdemo.redis;
+
+import cn.hutool.core.io.IoUtil;
+import cn.hutool.core.io.file.FileNameUtil;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.support.PathMatchingResourcePatternResolver;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Lua 脚本注册中心
+ * <p>
+ * 启动时一次性加载 resources/lua 下的所有脚本并 SCRIPT LOAD 到 Redis，之后统一通过 EVALSHA 执行，
+ * 不再每次请求读取 classpath 并发送完整脚本。Redis 重启等原因返回 NOSCRIPT 时，
+ * RedisTemplate 会自动回退为 EVAL，脚本随之重新缓存到 Redis，后续请求继续走 EVALSHA。
+ *
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class RedisScriptRegistry implements InitializingBean {
+
+    private static final String LUA_SCRIPT_LOCATION = "classpath*:lua/*.lua";
+
+    private final RedisTemplate redisTemplate;
+
+    /**
+     * 脚本名（不含扩展名） -> 脚本内容
+     */
+    private final Map<String, String> scriptTexts = new ConcurrentHashMap<>();
+
+    /**
+     * 脚本名 + 返回类型 -> 脚本
+     */
+    private final Map<String, RedisScript<?>> scripts = new ConcurrentHashMap<>();
+
+    @Override
+    public void afterPropertiesSet() throws IOException {
+        Resource[] resources = new PathMatchingResourcePatternResolver().getResources(LUA_SCRIPT_LOCATION);
+        for (Resource resource : resources) {
+            try (InputStream inputStream = resource.getInputStream()) {
+                scriptTexts.put(FileNameUtil.mainName(resource.getFilename()), IoUtil.read(inputStream, StandardCharsets.UTF_8));
+            }
+        }
+        log.info("加载Lua脚本：{}", scriptTexts.keySet());
+        preload();
+    }
+
+    /**
+     * 获取脚本，返回类型为 Long
+     *
+     * @param name 脚本名，即 resources/lua 下的文件名（不含扩展名）
+     * @return 脚本
+     */
+    public RedisScript<Long> getScript(String name) {
+        return getScript(name, Long.class);
+    }
+
+    /**
+     * 获取指定返回类型的脚本
+     *
+     * @param name       脚本名
+     * @param resultType 返回类型
+     * @return 脚本
+     */
+    @SuppressWarnings("unchecked")
+    public <T> RedisScript<T> getScript(String name, Class<T> resultType) {
+        return (RedisScript<T>) scripts.computeIfAbsent(name + ":" + resultType.getName(), key -> {
+            String scriptText = scriptTexts.get(name);
+            if (scriptText == null) {
+                throw new IllegalArgumentException("Lua脚本不存在：" + name);
+            }
+            return new DefaultRedisScript<>(scriptText, resultType);
+        });
+    }
+
+    /**
+     * 通过 EVALSHA 执行返回类型为 Long 的脚本
+     */
+    public Long execute(String name, List<String> keys, Object... args) {
+        return execute(name, Long.class, keys, args);
+    }
+
+    /**
+     * 通过 EVALSHA 执行脚本
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T execute(String name, Class<T> resultType, List<String> keys, Object... args) {
+        return (T) redisTemplate.execute(getScript(name, resultType), keys, args);
+    }
+
+    /**
+     * 预先 SCRIPT LOAD 所有脚本，Redis 不可用时只记录日志，首次执行时再由 EVAL 回退加载
+     */
+    private void preload() {
+        try {
+            redisTemplate.execute((RedisCallback<Object>) connection -> {
+                scriptTexts.values().forEach(scriptText -> connection.scriptingCommands().scriptLoad(scriptText.getBytes(StandardCharsets.UTF_8)));
+                return null;
+            });
+        } catch (Exception e) {
+            log.warn("预加载Lua脚本失败，将在首次执行时加载", e);
+        }
+    }
+}
@@ -2,6 +2,9 @@ package com.zh.stockdemo.service;
 
 import com.zh.stockdemo.entity.Order;
 import com.baomidou.mybatisplus.extension.service.IService;
+import com.zh.stockdemo.mq.mq.event.DecreaseStockItem;
+
+import java.util.List;
 
 /**
  * <p>
@@ -13,5 +16,13 @@ import com.baomidou.mybatisplus.extension.service.IService;
  */
 public interface OrderService extends IService<Order> {
 
-    void createOrder(Integer productId , Integer stockLogId);
+    void createOrder(Integer productId, Integer stockLogId, Integer amount);
+
+    /**
+     * 购物车结算，一次性扣减所有商品库存并为每个商品创建订单
+     *
+     * @param stockLogId 库存流水id
+     * @param items      商品扣减明细
+     */
+    void createCartOrder(Integer stockLogId, List<DecreaseStockItem> items);
 }
@@ -0,0 +1,51 @@
+package com.zh.stockdemo.service;
+
+import com.zh.stockdemo.mq.mq.event.DecreaseStockItem;
+
+import java.util.List;
+
+/**
+ * <p>
+ *  Redis 库存服务类
+ * </p>
+ *
+ * @author zh
+ */
+public interface RedisStockService {
+
+    /**
+     * 扣减 Redis 库存
+     *
+     * @param productId  产品id
+     * @param stockLogId 库存流水id，分段模式下用于选择分段
+     * @param amount     扣减数量
+     * @return 1->扣减成功，0->库存售罄，-1->库存不存在，-2->库存不足本次扣减数量，-3->扣减数量不合法
+     */
+    Long decreaseStock(Integer productId, Integer stockLogId, Integer amount);
+
+    /**
+     * 补偿 Redis 库存
+     *
+     * @param productId  产品id
+     * @param stockLogId 库存流水id，分段模式下用于选择分段
+     * @param amount     补偿数量
+     */
+    void increaseStock(Integer productId, Integer stockLogId, Integer amount);
+
+    /**
+     * 一次性扣减购物车内所有商品的 Redis 库存，要么全部成功要么都不扣减
+     *
+     * @param items      商品扣减明细，同一商品只能出现一次
+     * @param stockLogId 库存流水id
+     * @return 返回值含义同 {@link #decreaseStock(Integer, Integer, Integer)}，失败时为第一个失败商品的结果，脚本没有返回结果时为 null
+     */
+    Long decreaseCartStock(List<DecreaseStockItem> items, Integer stockLogId);
+
+    /**
+     * 补偿购物车内所有商品的 Redis 库存
+     *
+     * @param items      商品扣减明细
+     * @param stockLogId 库存流水id
+     */
+    void increaseCartStock(List<DecreaseStockItem> items, Integer stockLogId);
+}
@@ -2,6 +2,7 @@ package com.zh.stockdemo.service;
 
 import com.zh.stockdemo.entity.StockLog;
 import com.baomidou.mybatisplus.extension.service.IService;
+import com.zh.stockdemo.mq.mq.event.DecreaseStockEvent;
 
 /**
  * <p>
@@ -13,4 +14,26 @@ import com.baomidou.mybatisplus.extension.service.IService;
  */
 public interface StockLogService extends IService<StockLog> {
 
+    /**
+     * 创建初始化状态的库存流水，返回前已分配好id，开启异步写入时不等待数据库
+     *
+     * @param stockLog 库存流水
+     */
+    void createStockLog(StockLog stockLog);
+
+    /**
+     * 写入库存扣减事件对应流水的状态，流水还未写入时插入完整的行
+     *
+     * @param event  库存扣减事件
+     * @param status 库存流水状态
+     */
+    void upsertStatus(DecreaseStockEvent event, Integer status);
+
+    /**
+     * 事务消息未发送成功时回滚仍为初始化状态的库存流水，流水还未写入时直接写入回滚状态
+     *
+     * @param event 库存扣减事件
+     * @return 是否由本次调用置为回滚
+     */
+    boolean rollbackPending(DecreaseStockEvent event);
 }
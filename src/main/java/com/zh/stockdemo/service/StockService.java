@@ -2,6 +2,11 @@ package com.zh.stockdemo.service;
 
 import com.zh.stockdemo.entity.Stock;
 import com.baomidou.mybatisplus.extension.service.IService;
+import com.zh.stockdemo.mq.mq.domain.MessageWrapper;
+import com.zh.stockdemo.mq.mq.event.DecreaseStockEvent;
+import com.zh.stockdemo.mq.mq.event.DecreaseStockItem;
+
+import java.util.List;
 
 /**
  * <p>
@@ -13,5 +18,32 @@ import com.baomidou.mybatisplus.extension.service.IService;
  */
 public interface StockService extends IService<Stock> {
 
-    int decreaseStock(Integer productId, String UUID);
+    /**
+     * 扣减单个商品的库存，同一条消息只扣减一次
+     *
+     * @param productId 商品id
+     * @param amount    扣减数量
+     * @param UUID      消息唯一标识
+     * @param timestamp 消息发送时间，用于定位幂等标识所在时间桶
+     * @return 1->扣减成功，0->消息已消费过或库存不足
+     */
+    int decreaseStock(Integer productId, Integer amount, String UUID, Long timestamp);
+
+    /**
+     * 扣减购物车内所有商品的库存，同一条消息只扣减一次
+     *
+     * @param items     商品扣减明细
+     * @param UUID      消息唯一标识
+     * @param timestamp 消息发送时间，用于定位幂等标识所在时间桶
+     * @return 1->扣减成功，0->消息已消费过
+     */
+    int decreaseCartStock(List<DecreaseStockItem> items, String UUID, Long timestamp);
+
+    /**
+     * 批量扣减库存，同一批消息按商品合并扣减数量，每个商品只执行一次更新
+     *
+     * @param messages 库存同步消息
+     * @return 实际参与扣减的消息数（已消费过的消息不计入）
+     */
+    int decreaseStockBatch(List<MessageWrapper<DecreaseStockEvent>> messages);
 }
@@ -1,22 +1,29 @@
 package com.zh.stockdemo.service.impl;
 
-import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.alibaba.fastjson2.JSON;
+import com.baomidou.mybatisplus.core.incrementer.IdentifierGenerator;
+import com.zh.stockdemo.batch.OrderGroupCommitWriter;
+import com.zh.stockdemo.cache.EntityCache;
+import com.zh.stockdemo.cache.EntityCacheManager;
+import com.zh.stockdemo.cache.StockLogStatusIndex;
+import com.zh.stockdemo.config.StockProperties;
 import com.zh.stockdemo.entity.Order;
 import com.zh.stockdemo.entity.StockLog;
 import com.zh.stockdemo.mapper.OrderMapper;
 import com.zh.stockdemo.mapper.StockLogMapper;
+import com.zh.stockdemo.mq.mq.event.DecreaseStockItem;
 import com.zh.stockdemo.service.OrderService;
+import com.zh.stockdemo.service.RedisStockService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import lombok.RequiredArgsConstructor;
-import org.springframework.core.io.ClassPathResource;
-import org.springframework.data.redis.core.RedisTemplate;
-import org.springframework.data.redis.core.script.DefaultRedisScript;
-import org.springframework.scripting.support.ResourceScriptSource;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 import org.springframework.transaction.support.TransactionTemplate;
 
+import java.io.Serializable;
 import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
 
 /**
  * <p>
@@ -34,52 +41,131 @@ public class OrderServiceImpl extends ServiceImpl<OrderMapper, Order> implements
 
     private final StockLogMapper stockLogMapper;
 
-    private final RedisTemplate redisTemplate;
+    private final RedisStockService redisStockService;
 
     private final TransactionTemplate transactionTemplate;
 
-    private static final String LUA_DECRESE_STOCK_PATH = "lua/decreseStock.lua";
+    private final OrderGroupCommitWriter orderGroupCommitWriter;
+
+    private final StockProperties stockProperties;
+
+    private final StockLogStatusIndex stockLogStatusIndex;
+
+    private final IdentifierGenerator identifierGenerator;
+
+    private final EntityCacheManager entityCacheManager;
+
+    /**
+     * 订单写入后不再变化，按id查询走实体缓存
+     */
+    @Override
+    public Order getById(Serializable id) {
+        Integer orderId = EntityCache.parseId(id);
+        if (orderId == null) {
+            return super.getById(id);
+        }
+        return entityCacheManager.getOrderCache().get(orderId, super::getById);
+    }
 
     @Override
-    public void createOrder(Integer productId, Integer stockLogId) {
+    public boolean updateById(Order entity) {
+        boolean updated = super.updateById(entity);
+        entityCacheManager.getOrderCache().evict(entity.getId());
+        return updated;
+    }
 
-        // 减少Redis里面的库存
-        DefaultRedisScript<Long> redisScript = new DefaultRedisScript<>();
-        redisScript.setScriptSource(new ResourceScriptSource(new ClassPathResource(LUA_DECRESE_STOCK_PATH)));
-        redisScript.setResultType(Long.class);
+    @Override
+    public boolean removeById(Serializable id) {
+        boolean removed = super.removeById(id);
+        entityCacheManager.getOrderCache().evict(EntityCache.parseId(id));
+        return removed;
+    }
 
+    @Override
+    public void createOrder(Integer productId, Integer stockLogId, Integer amount) {
 
-        // 执行Lua脚本
-        Long redisResult = (Long) redisTemplate.execute(redisScript, Collections.singletonList(String.valueOf(productId)));
+        // 按数量减少Redis里面的库存，分段模式下会依次尝试各个分段
+        Long redisResult = redisStockService.decreaseStock(productId, stockLogId, amount);
 
-        if (redisResult < 1L) {
+        if (redisResult == null || redisResult < 1L) {
             throw new RuntimeException("库存售罄");
         }
 
-        // 编程式事务
-        transactionTemplate.executeWithoutResult(status -> {
+        // 组提交模式下与并发的其他订单合并为一个事务写入，失败时补偿redis库存并抛出异常，由事务监听器回滚消息
+        if (stockProperties.getGroupCommit().isEnabled()) {
             try {
+                orderGroupCommitWriter.write(productId, stockLogId, amount);
+                stockLogStatusIndex.record(stockLogId, 1);
+            } catch (RuntimeException e) {
+                redisStockService.increaseStock(productId, stockLogId, amount);
+                throw e;
+            }
+            return;
+        }
+
+        // 编程式事务，事务内任何异常都会回滚，补偿redis库存后继续抛出，由事务监听器回滚消息
+        try {
+            transactionTemplate.executeWithoutResult(status -> {
                 // 事务性操作
                 Order order = Order.builder()
                         .productId(productId)
-                        .productNum(1)
+                        .productNum(amount)
                         .build();
                 orderMapper.insert(order);
 
-                // 改stockLog
-                StockLog stockLog = stockLogMapper.selectOne(new QueryWrapper<StockLog>().eq("id", stockLogId));
-                if (stockLog == null) {
-                    throw new RuntimeException("该库存流水不存在");
-                }
-                stockLog.setStatus(1);
-                stockLogMapper.updateById(stockLog);
-                // 如果操作成功，不抛出异常，事务将提交
-            } catch (Exception e) {
-                // 如果操作失败，抛出异常，事务将回滚 并且需要补偿redis的库存
-                redisTemplate.opsForValue().increment(String.valueOf(productId));
-                status.setRollbackOnly();
-            }
-        });
+                // 改stockLog，异步写入的流水可能还未落库，不存在时直接写入完整的流水
+                StockLog stockLog = StockLog.builder()
+                        .id(stockLogId)
+                        .productId(productId)
+                        .amount(amount)
+                        .status(1)
+                        .build();
+                stockLogMapper.upsertStatusBatch(Collections.singletonList(stockLog));
+            });
+            stockLogStatusIndex.record(stockLogId, 1);
+        } catch (RuntimeException e) {
+            // 事务已回滚，补偿redis的库存
+            redisStockService.increaseStock(productId, stockLogId, amount);
+            throw e;
+        }
+    }
+
+    @Override
+    public void createCartOrder(Integer stockLogId, List<DecreaseStockItem> items) {
+
+        // 一次Lua调用扣减购物车内所有商品的库存
+        Long redisResult = redisStockService.decreaseCartStock(items, stockLogId);
 
+        if (redisResult == null || redisResult < 1L) {
+            throw new RuntimeException("库存售罄");
+        }
+
+        try {
+            transactionTemplate.executeWithoutResult(status -> {
+                List<Order> orders = items.stream()
+                        .map(each -> Order.builder()
+                                .productId(each.getProductId())
+                                .productNum(each.getAmount())
+                                .build())
+                        .collect(Collectors.toList());
+                // 批量插入不经过 MyBatis-Plus 主键填充，预先分配id
+                orders.forEach(each -> each.setId(identifierGenerator.nextId(each).intValue()));
+                orderMapper.insertBatch(orders);
+
+                // 改stockLog，异步写入的流水可能还未落库，不存在时直接写入完整的流水
+                StockLog stockLog = StockLog.builder()
+                        .id(stockLogId)
+                        .amount(items.stream().mapToInt(DecreaseStockItem::getAmount).sum())
+                        .items(JSON.toJSONString(items))
+                        .status(1)
+                        .build();
+                stockLogMapper.upsertStatusBatch(Collections.singletonList(stockLog));
+            });
+            stockLogStatusIndex.record(stockLogId, 1);
+        } catch (RuntimeException e) {
+            // 事务已回滚，补偿所有商品的redis库存
+            redisStockService.increaseCartStock(items, stockLogId);
+            throw e;
+        }
     }
 }
@@ -0,0 +1,206 @@
+package com.zh.stockdemo.service.impl;
+
+import com.zh.stockdemo.batch.StockDecreaseCoalescer;
+import com.zh.stockdemo.cache.HotProductDetector;
+import com.zh.stockdemo.cache.SoldOutIndex;
+import com.zh.stockdemo.cache.StockLeaseManager;
+import com.zh.stockdemo.config.StockProperties;
+import com.zh.stockdemo.constant.StockRedisConstant;
+import com.zh.stockdemo.metrics.StockMetrics;
+import com.zh.stockdemo.mq.mq.event.DecreaseStockItem;
+import com.zh.stockdemo.redis.RedisScriptRegistry;
+import com.zh.stockdemo.service.RedisStockService;
+import io.micrometer.core.instrument.Timer;
+import lombok.RequiredArgsConstructor;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+/**
+ * <p>
+ * Redis 库存服务实现类
+ * </p>
+ * 分段模式下一个商品的库存拆分到多个分段 Key 上，热点商品的扣减分散到不同 Key，
+ * 选中的分段不足时在一次 Lua 调用内跨所有分段扣减，要么扣减全部数量要么都不扣减，所有分段都耗尽才设置售罄标识。
+ * 跨分段扣减访问同一商品的所有分段 key，与购物车脚本一样需要单节点（或主从、哨兵）Redis。
+ * 租借模式下（非分段商品）先从节点本地租借的库存扣减，见 {@link StockLeaseManager}，热点商品可自动进入租借模式，见 {@link HotProductDetector}。
+ * 各节点对热点的判断可能不一致，直接扣减 Redis 的脚本只在没有任何节点持有租借库存时才设置售罄标识。
+ * 合并模式下同一商品并发的扣减合并为一次 Lua 调用，见 {@link StockDecreaseCoalescer}。
+ * 购物车结算时所有商品在一次 Lua 调用内检查并扣减；包含分段或租借商品时退化为逐个扣减、失败归还。
+ * 购物车脚本访问多个商品的库存 key，各商品 key 没有共同的 hash tag，需要单节点（或主从、哨兵）Redis，
+ * Redis Cluster 下会因 key 不在同一 slot 报 CROSSSLOT。
+ *
+ * @author zh
+ */
+@Service
+@RequiredArgsConstructor
+public class RedisStockServiceImpl implements RedisStockService {
+
+    private final RedisTemplate redisTemplate;
+
+    private final RedisScriptRegistry redisScriptRegistry;
+
+    private final StockProperties stockProperties;
+
+    private final SoldOutIndex soldOutIndex;
+
+    private final StockLeaseManager stockLeaseManager;
+
+    private final HotProductDetector hotProductDetector;
+
+    private final StockDecreaseCoalescer stockDecreaseCoalescer;
+
+    private final StockMetrics stockMetrics;
+
+    private final AtomicInteger roundRobin = new AtomicInteger();
+
+    @Override
+    public Long decreaseStock(Integer productId, Integer stockLogId, Integer amount) {
+        Timer.Sample sample = stockMetrics.start();
+        Long result = null;
+        try {
+            result = doDecreaseStock(productId, stockLogId, amount);
+            return result;
+        } finally {
+            stockMetrics.recordRedisDeduct(sample, "single", result);
+        }
+    }
+
+    private Long doDecreaseStock(Integer productId, Integer stockLogId, Integer amount) {
+        // 租借和分段路径在 Java 中计算剩余数量，负数会变成增加库存，入口统一拦截
+        if (amount == null || amount < 1) {
+            return -3L;
+        }
+        StockProperties.Segment segment = stockProperties.getSegment();
+        if (!segment.isSegmented(productId) && useLease(productId)) {
+            return stockLeaseManager.decreaseStock(productId, amount);
+        }
+        if (!segment.isSegmented(productId)) {
+            Long result = coalesce(productId)
+                    ? stockDecreaseCoalescer.decreaseStock(productId, amount)
+                    : executeScript(StockRedisConstant.LUA_DECRESE_STOCK, StockRedisConstant.stockKey(productId), amount);
+            if (result != null && result == 0L) {
+                // 脚本已设置售罄标识，同步到各节点本地
+                soldOutIndex.markSoldOut(productId);
+            }
+            return result;
+        }
+
+        // 先只扣减选中的分段，足够时一次单 key 调用完成，热点商品的扣减分散到不同分段
+        int count = segment.getCount();
+        int start = selectSegment(stockLogId, count);
+        Long result = executeScript(StockRedisConstant.LUA_DECRESE_SEGMENT_STOCK, StockRedisConstant.stockSegmentKey(productId, start), amount);
+        if (result != null && (result == 1L || result == -3L)) {
+            return result;
+        }
+        // 选中的分段不足，在一次调用内跨所有分段扣减，要么扣减全部数量要么都不扣减，
+        // 没有部分扣减后再归还的中间状态，其他请求不会因此误判所有分段耗尽
+        List<String> keys = new ArrayList<>(count + 1);
+        keys.add(StockRedisConstant.stockInvalidKey(productId));
+        for (int i = 0; i < count; i++) {
+            keys.add(StockRedisConstant.stockSegmentKey(productId, (start + i) % count));
+        }
+        result = redisScriptRegistry.execute(StockRedisConstant.LUA_DECREASE_ALL_SEGMENT_STOCK, keys, amount);
+        if (result != null && result == 0L) {
+            // 脚本看到所有分段都已耗尽并设置了售罄标识，同步到各节点本地
+            soldOutIndex.markSoldOut(productId);
+        }
+        return result;
+    }
+
+    @Override
+    public void increaseStock(Integer productId, Integer stockLogId, Integer amount) {
+        stockMetrics.recordRedisCompensation(amount);
+        StockProperties.Segment segment = stockProperties.getSegment();
+        if (!segment.isSegmented(productId) && useLease(productId)) {
+            stockLeaseManager.increaseStock(productId, amount);
+            return;
+        }
+        if (!segment.isSegmented(productId)) {
+            redisTemplate.opsForValue().increment(StockRedisConstant.stockKey(productId), amount);
+            return;
+        }
+        int count = segment.getCount();
+        redisTemplate.opsForValue().increment(StockRedisConstant.stockSegmentKey(productId, selectSegment(stockLogId, count)), amount);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public Long decreaseCartStock(List<DecreaseStockItem> items, Integer stockLogId) {
+        boolean atomic = items.stream().noneMatch(each -> stockProperties.getSegment().isSegmented(each.getProductId())
+                || useLease(each.getProductId()));
+        if (atomic) {
+            List<String> keys = items.stream()
+                    .map(each -> StockRedisConstant.stockKey(each.getProductId()))
+                    .collect(Collectors.toList());
+            Object[] amounts = items.stream().map(DecreaseStockItem::getAmount).toArray();
+            Timer.Sample sample = stockMetrics.start();
+            List<Long> result = null;
+            try {
+                result = redisScriptRegistry.execute(StockRedisConstant.LUA_DECREASE_CART_STOCK, List.class, keys, amounts);
+            } finally {
+                stockMetrics.recordRedisDeduct(sample, "cart", result == null || result.isEmpty() ? null : result.get(0));
+            }
+            if (result == null || result.isEmpty()) {
+                return null;
+            }
+            Long code = result.get(0);
+            if (code == 0L) {
+                soldOutIndex.markSoldOut(items.get(result.get(1).intValue() - 1).getProductId());
+            }
+            return code;
+        }
+
+        // 分段或租借的商品无法在一个脚本内扣减，逐个扣减，任一商品失败时归还已扣减的商品
+        List<DecreaseStockItem> decreased = new ArrayList<>(items.size());
+        for (DecreaseStockItem item : items) {
+            Long result = decreaseStock(item.getProductId(), stockLogId, item.getAmount());
+            if (result == null || result < 1L) {
+                increaseCartStock(decreased, stockLogId);
+                return result;
+            }
+            decreased.add(item);
+        }
+        return 1L;
+    }
+
+    @Override
+    public void increaseCartStock(List<DecreaseStockItem> items, Integer stockLogId) {
+        items.forEach(each -> increaseStock(each.getProductId(), stockLogId, each.getAmount()));
+    }
+
+    /**
+     * 是否走库存租借：热点标记过期后本节点仍持有租借库存时继续从本地扣减，用完后再回到直接扣减 Redis
+     * <p>
+     * 各节点按自己的访问统计判断热点，同一商品可能一部分节点租借、一部分节点直接扣减 Redis，
+     * 直接扣减的脚本在中心库存耗尽时会检查租借 hash，仍有节点持有租借库存时返回库存不足而不设置售罄标识
+     */
+    private boolean useLease(Integer productId) {
+        return hotProductDetector.useLease(productId) || stockLeaseManager.getLocalStock(productId) > 0L;
+    }
+
+    /**
+     * 是否合并扣减，只对未分段、未租借的商品生效
+     */
+    private boolean coalesce(Integer productId) {
+        StockProperties.Coalesce coalesce = stockProperties.getCoalesce();
+        return coalesce.isEnabled() && (!coalesce.isHotOnly() || hotProductDetector.isHot(productId));
+    }
+
+    private int selectSegment(Integer stockLogId, int count) {
+        if (stockProperties.getSegment().getStrategy() == StockProperties.SegmentStrategy.ROUND_ROBIN || stockLogId == null) {
+            return Math.floorMod(roundRobin.getAndIncrement(), count);
+        }
+        return Math.floorMod(Objects.hashCode(stockLogId), count);
+    }
+
+    private Long executeScript(String name, String key, long amount) {
+        return redisScriptRegistry.execute(name, Collections.singletonList(key), amount);
+    }
+}
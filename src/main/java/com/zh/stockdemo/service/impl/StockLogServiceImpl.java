@@ -1,11 +1,27 @@
 package com.zh.stockdemo.service.impl;
 
+import cn.hutool.core.collection.CollUtil;
+import com.alibaba.fastjson2.JSON;
+import com.baomidou.mybatisplus.core.conditions.update.UpdateWrapper;
+import com.baomidou.mybatisplus.core.incrementer.IdentifierGenerator;
+import com.zh.stockdemo.batch.StockLogWriteBehindWriter;
+import com.zh.stockdemo.cache.EntityCache;
+import com.zh.stockdemo.cache.EntityCacheManager;
+import com.zh.stockdemo.config.StockProperties;
 import com.zh.stockdemo.entity.StockLog;
 import com.zh.stockdemo.mapper.StockLogMapper;
+import com.zh.stockdemo.metrics.StockMetrics;
+import com.zh.stockdemo.mq.mq.event.DecreaseStockEvent;
+import com.zh.stockdemo.mq.mq.event.DecreaseStockItem;
 import com.zh.stockdemo.service.StockLogService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import io.micrometer.core.instrument.Timer;
+import lombok.RequiredArgsConstructor;
 import org.springframework.stereotype.Service;
 
+import java.io.Serializable;
+import java.util.Collections;
+
 /**
  * <p>
  *  服务实现类
@@ -15,6 +31,96 @@ import org.springframework.stereotype.Service;
  * @since 2024-01-11
  */
 @Service
+@RequiredArgsConstructor
 public class StockLogServiceImpl extends ServiceImpl<StockLogMapper, StockLog> implements StockLogService {
 
+    private final StockLogMapper stockLogMapper;
+
+    private final IdentifierGenerator identifierGenerator;
+
+    private final StockLogWriteBehindWriter stockLogWriteBehindWriter;
+
+    private final StockProperties stockProperties;
+
+    private final EntityCacheManager entityCacheManager;
+
+    private final StockMetrics stockMetrics;
+
+    /**
+     * 按id查询走实体缓存，只缓存终态流水，处理中的流水每次都查询数据库
+     */
+    @Override
+    public StockLog getById(Serializable id) {
+        Integer stockLogId = EntityCache.parseId(id);
+        if (stockLogId == null) {
+            return super.getById(id);
+        }
+        return entityCacheManager.getStockLogCache().get(stockLogId, super::getById);
+    }
+
+    @Override
+    public boolean updateById(StockLog entity) {
+        boolean updated = super.updateById(entity);
+        entityCacheManager.getStockLogCache().evict(entity.getId());
+        return updated;
+    }
+
+    @Override
+    public boolean removeById(Serializable id) {
+        boolean removed = super.removeById(id);
+        entityCacheManager.getStockLogCache().evict(EntityCache.parseId(id));
+        return removed;
+    }
+
+    @Override
+    public void createStockLog(StockLog stockLog) {
+        Timer.Sample sample = stockMetrics.start();
+        boolean writeBehind = stockProperties.getWriteBehind().isEnabled();
+        if (!writeBehind) {
+            save(stockLog);
+        } else {
+            // 异步写入不经过 MyBatis-Plus 主键填充，预先分配id
+            stockLog.setId(identifierGenerator.nextId(stockLog).intValue());
+            stockLogWriteBehindWriter.append(stockLog);
+        }
+        stockMetrics.recordStockLogInsert(sample, writeBehind);
+    }
+
+    @Override
+    public void upsertStatus(DecreaseStockEvent event, Integer status) {
+        stockLogMapper.upsertStatusBatch(Collections.singletonList(toStockLog(event, status)));
+        // 覆盖已存在流水的状态，失效可能存在的缓存
+        entityCacheManager.getStockLogCache().evict(event.getStockLogId());
+    }
+
+    @Override
+    public boolean rollbackPending(DecreaseStockEvent event) {
+        boolean updated = update(new UpdateWrapper<StockLog>()
+                .set("status", 2)
+                .eq("id", event.getStockLogId())
+                .eq("status", 0));
+        if (updated || !stockProperties.getWriteBehind().isEnabled()) {
+            return updated;
+        }
+        // 异步写入还未落库时直接写入回滚状态，之后到达的初始化流水会被忽略
+        return stockLogMapper.insertIgnoreBatch(Collections.singletonList(toStockLog(event, 2))) > 0;
+    }
+
+    private StockLog toStockLog(DecreaseStockEvent event, Integer status) {
+        if (CollUtil.isNotEmpty(event.getItems())) {
+            return StockLog.builder()
+                    .id(event.getStockLogId())
+                    .amount(event.getItems().stream().mapToInt(DecreaseStockItem::getAmount).sum())
+                    .items(JSON.toJSONString(event.getItems()))
+                    .status(status)
+                    .build();
+        }
+        return StockLog.builder()
+                .id(event.getStockLogId())
+                .productId(event.getProductId())
+                .amount(event.getAmount())
+                .status(status)
+                .build();
+    }
+
 }
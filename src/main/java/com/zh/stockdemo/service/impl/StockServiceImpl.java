@@ -1,14 +1,25 @@
 package com.zh.stockdemo.service.impl;
 
+import cn.hutool.core.collection.CollUtil;
 import com.zh.stockdemo.entity.Stock;
 import com.zh.stockdemo.mapper.StockMapper;
 import com.zh.stockdemo.service.StockService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.zh.stockdemo.mq.mq.domain.MessageWrapper;
+import com.zh.stockdemo.mq.mq.event.DecreaseStockEvent;
+import com.zh.stockdemo.mq.mq.event.DecreaseStockItem;
+import com.zh.stockdemo.redis.MessageIdempotentStore;
 import lombok.RequiredArgsConstructor;
-import org.springframework.data.redis.core.RedisTemplate;
+import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
-import java.util.concurrent.TimeUnit;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
 
 /**
  * <p>
@@ -18,20 +29,93 @@ import java.util.concurrent.TimeUnit;
  * @author zh
  * @since 2024-01-09
  */
+@Slf4j
 @Service
 @RequiredArgsConstructor
 public class StockServiceImpl extends ServiceImpl<StockMapper, Stock> implements StockService {
 
     private final StockMapper stockMapper;
 
-    private final RedisTemplate redisTemplate;
+    private final MessageIdempotentStore messageIdempotentStore;
 
     @Override
-    public int decreaseStock(Integer productId, String UUID) {
-        if(redisTemplate.hasKey("decrease_mark_" + UUID)) {
+    public int decreaseStock(Integer productId, Integer amount, String UUID, Long timestamp) {
+        if (!messageIdempotentStore.claim(UUID, timestamp)) {
             return 0;
         }
-        redisTemplate.opsForValue().set("decrease_mark_" + UUID, "true", 24, TimeUnit.HOURS);
-        return stockMapper.decreaseStock(productId);
+        try {
+            return stockMapper.decreaseStock(productId, amount);
+        } catch (RuntimeException e) {
+            // 扣减失败释放幂等标识，保证消息重试时能够重新扣减
+            messageIdempotentStore.release(UUID, timestamp);
+            throw e;
+        }
+    }
+
+    @Override
+    @Transactional(rollbackFor = Exception.class)
+    public int decreaseCartStock(List<DecreaseStockItem> items, String UUID, Long timestamp) {
+        if (!messageIdempotentStore.claim(UUID, timestamp)) {
+            return 0;
+        }
+        releaseUnlessCommitted(() -> messageIdempotentStore.release(UUID, timestamp));
+        // 按商品id顺序更新，避免与其他扣减并发时死锁
+        Map<Integer, Integer> decreaseAmounts = new TreeMap<>();
+        items.forEach(each -> decreaseAmounts.merge(each.getProductId(), each.getAmount(), Integer::sum));
+        decreaseAmounts.forEach((productId, amount) -> {
+            if (stockMapper.decreaseStock(productId, amount) == 0) {
+                log.error("购物车扣减库存失败，库存不足，productId：{}，amount：{}", productId, amount);
+            }
+        });
+        return 1;
+    }
+
+    @Override
+    @Transactional(rollbackFor = Exception.class)
+    public int decreaseStockBatch(List<MessageWrapper<DecreaseStockEvent>> messages) {
+        List<MessageWrapper<DecreaseStockEvent>> claimedMessages = new ArrayList<>(messages.size());
+        // 按商品id排序合并，多个批次并发更新时加锁顺序一致，避免死锁
+        Map<Integer, Integer> decreaseAmounts = new TreeMap<>();
+        releaseUnlessCommitted(() -> claimedMessages.forEach(each -> messageIdempotentStore.release(each.getUuid(), each.getTimestamp())));
+        for (MessageWrapper<DecreaseStockEvent> message : messages) {
+            // 已经消费过的消息跳过
+            if (!messageIdempotentStore.claim(message.getUuid(), message.getTimestamp())) {
+                continue;
+            }
+            claimedMessages.add(message);
+            DecreaseStockEvent event = message.getMessage();
+            if (CollUtil.isNotEmpty(event.getItems())) {
+                event.getItems().forEach(each -> decreaseAmounts.merge(each.getProductId(), each.getAmount(), Integer::sum));
+            } else {
+                decreaseAmounts.merge(event.getProductId(), event.getAmount(), Integer::sum);
+            }
+        }
+        decreaseAmounts.forEach((productId, amount) -> {
+            if (stockMapper.decreaseStock(productId, amount) == 0) {
+                log.error("批量扣减库存失败，库存不足，productId：{}，amount：{}", productId, amount);
+            }
+        });
+        return claimedMessages.size();
+    }
+
+    /**
+     * 事务没有提交时释放已占用的幂等标识，保证消息重试时能够重新扣减。
+     * 在事务完成后执行，方法内的异常和提交本身失败都会触发；不在事务中调用时立即注册失败，直接抛出异常。
+     */
+    private void releaseUnlessCommitted(Runnable release) {
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCompletion(int status) {
+                if (status == STATUS_COMMITTED) {
+                    return;
+                }
+                try {
+                    release.run();
+                } catch (RuntimeException e) {
+                    // 释放失败时消息重试会被当作重复消息跳过，需要人工对账
+                    log.error("释放消息幂等标识失败，事务状态：{}", status, e);
+                }
+            }
+        });
     }
 }
@@ -0,0 +1,18 @@
+local bucket = KEYS[1]
+local legacy_mark = KEYS[2]
+
+-- 兼容升级前以独立 key 记录的幂等标识，超过保留期后该判断不再命中
+if redis.call('EXISTS', legacy_mark) == 1 then
+    return 0
+end
+
+-- 同一时间桶内的消息 uuid 作为 hash 字段，HSETNX 原子占用
+if redis.call('HSETNX', bucket, ARGV[1], 1) == 0 then
+    return 0
+end
+
+-- 时间桶首次写入时设置过期时间，整个桶到期后一起删除
+if redis.call('TTL', bucket) < 0 then
+    redis.call('EXPIRE', bucket, tonumber(ARGV[2]))
+end
+return 1
@@ -0,0 +1,48 @@
+-- 跨所有分段扣减一个商品的库存，KEYS[1]为售罄标识，其余为该商品的各分段key，按尝试顺序排列
+-- 所有分段加起来足够时按顺序依次扣减，否则都不扣减；一次调用内看到所有分段都耗尽才设置售罄标识
+-- 访问同一商品的多个分段 key，只能在单节点 Redis 上执行，Redis Cluster 下 key 不在同一 slot 会报 CROSSSLOT
+-- 返回值含义与 decreseStock.lua 相同，-3 表示扣减数量不合法
+local stock_invalid_tag = KEYS[1]
+local amount = tonumber(ARGV[1]) or 1
+if amount <= 0 then
+    return -3  -- 表示扣减失败，扣减数量不合法
+end
+
+local stocks = {}
+local total = 0
+local exists = false
+for i = 2, #KEYS do
+    local value = redis.call('GET', KEYS[i])
+    if value ~= false then
+        exists = true
+        stocks[i] = tonumber(value)
+        if stocks[i] > 0 then
+            total = total + stocks[i]
+        end
+    end
+end
+if not exists then
+    return -1  -- 表示扣减失败，所有分段都不存在
+end
+if total >= amount then
+    local left = amount
+    for i = 2, #KEYS do
+        if left == 0 then
+            break
+        end
+        local stock = stocks[i]
+        if stock ~= nil and stock > 0 then
+            local taken = math.min(stock, left)
+            redis.call('DECRBY', KEYS[i], taken)
+            left = left - taken
+        end
+    end
+    return 1  -- 表示扣减成功
+end
+if total > 0 then
+    return -2  -- 表示扣减失败，所有分段加起来不足本次扣减数量
+end
+if redis.call('EXISTS', stock_invalid_tag) == 0 then
+    redis.call('SET', stock_invalid_tag, "true")
+end
+return 0  -- 表示扣减失败，所有分段都已耗尽
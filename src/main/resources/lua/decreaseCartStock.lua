@@ -0,0 +1,39 @@
+-- 购物车多个商品一次性扣减，KEYS为各商品库存key，ARGV为对应的扣减数量
+-- 先检查所有商品，全部满足才扣减，保证要么全部扣减成功要么都不扣减
+-- 访问多个商品的 key，只能在单节点 Redis 上执行，Redis Cluster 下 key 不在同一 slot 会报 CROSSSLOT
+-- 返回 {结果, 失败商品下标}，结果含义与 decreseStock.lua 相同，-3 表示扣减数量不合法
+local prefix = "product_stock_invalid_"
+local lease_prefix = "product_stock_lease_"
+
+for i, key in ipairs(KEYS) do
+    local value = redis.call('GET', key)
+    if value == false then
+        return {-1, i}  -- 表示扣减失败，键不存在
+    end
+    local stock = tonumber(value)
+    local amount = tonumber(ARGV[i])
+    if amount == nil or amount <= 0 then
+        return {-3, i}  -- 表示扣减失败，扣减数量不合法
+    end
+    if stock <= 0 then
+        -- 其他节点可能租借了该商品的库存，仍有节点持有租借库存时不是真正售罄
+        for _, leased in ipairs(redis.call('HVALS', lease_prefix .. key)) do
+            if tonumber(leased) > 0 then
+                return {-2, i}  -- 表示扣减失败，中心库存已耗尽但其他节点仍持有租借库存
+            end
+        end
+        local stock_invalid_tag = prefix .. key
+        if redis.call('EXISTS', stock_invalid_tag) == 0 then
+            redis.call('SET', stock_invalid_tag, "true")
+        end
+        return {0, i}  -- 表示扣减失败，该商品已售罄
+    end
+    if stock < amount then
+        return {-2, i}  -- 表示扣减失败，该商品库存不足
+    end
+end
+
+for i, key in ipairs(KEYS) do
+    redis.call('DECRBY', key, tonumber(ARGV[i]))
+end
+return {1, 0}  -- 表示全部扣减成功
@@ -0,0 +1,58 @@
+local key = KEYS[1]
+local stock_invalid_tag = KEYS[2]
+local lease_key = KEYS[3]
+
+-- 合并扣减同一商品的多个请求，ARGV为各请求按到达顺序排列的扣减数量
+-- 按顺序逐个判断，结果与逐个执行 decreseStock.lua 相同，最后一次 DECRBY 扣减总数
+local results = {}
+local value = redis.call('GET', key)
+if value == false then
+    for i = 1, #ARGV do
+        results[i] = -1  -- 表示扣减失败，键不存在
+    end
+    return results
+end
+
+local stock = tonumber(value)
+local taken = 0
+local sold_out = false
+for i = 1, #ARGV do
+    local amount = tonumber(ARGV[i]) or 1
+    local remaining = stock - taken
+    if amount <= 0 then
+        results[i] = -3  -- 表示扣减失败，扣减数量不合法
+    elseif remaining >= amount then
+        taken = taken + amount
+        results[i] = 1  -- 表示扣减成功
+    elseif remaining > 0 then
+        results[i] = -2  -- 表示扣减失败，库存不足本次扣减数量但未售罄
+    else
+        sold_out = true
+        results[i] = 0  -- 表示扣减失败，库存售罄
+    end
+end
+
+if sold_out then
+    -- 中心库存耗尽但其他节点仍持有租借库存时不是真正售罄，售罄的请求改为库存不足
+    for _, leased in ipairs(redis.call('HVALS', lease_key)) do
+        if tonumber(leased) > 0 then
+            sold_out = false
+            break
+        end
+    end
+    if not sold_out then
+        for i = 1, #results do
+            if results[i] == 0 then
+                results[i] = -2
+            end
+        end
+    end
+end
+
+if taken > 0 then
+    redis.call('DECRBY', key, taken)
+end
+if sold_out and redis.call('EXISTS', stock_invalid_tag) == 0 then
+    redis.call('SET', stock_invalid_tag, "true")
+end
+return results
@@ -0,0 +1,21 @@
+local key = KEYS[1]
+-- 扣减数量，不传默认为1
+local amount = tonumber(ARGV[1]) or 1
+if amount <= 0 then
+    return -3  -- 表示扣减数量不合法
+end
+
+-- 分段库存扣减，只处理单个分段，分段足够时全部扣减，否则不扣减，由调用方改为跨所有分段扣减
+-- 不设置售罄标识，单个分段耗尽不代表商品售罄
+local value = redis.call('GET', key)
+if value == false then
+    return -1  -- 表示递减失败，键不存在
+end
+local stock = tonumber(value)
+if stock >= amount then
+    redis.call('DECRBY', key, amount)
+    return 1  -- 表示扣减成功
+elseif stock > 0 then
+    return -2  -- 表示该分段不足本次扣减数量
+end
+return 0  -- 表示该分段已耗尽
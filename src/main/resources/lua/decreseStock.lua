@@ -1,24 +1,37 @@
 local key = KEYS[1]
+-- 扣减数量，不传默认为1
+local amount = tonumber(ARGV[1]) or 1
+if amount <= 0 then
+    return -3  -- 表示递减失败，扣减数量不合法
+end
 
 -- 检查键是否存在
 local exists = redis.call('EXISTS', key)
 if exists == 1 then
     -- 键存在，获取值
-    local value = redis.call('GET', key)
-    if tonumber(value) > 0 then
-        -- 如果值大于0，则递减
-        redis.call('DECR', key)
+    local value = tonumber(redis.call('GET', key))
+    if value >= amount then
+        -- 如果库存足够，则按数量递减
+        redis.call('DECRBY', key, amount)
         return 1  -- 表示递减成功
+    elseif value > 0 then
+        return -2  -- 表示递减失败，库存不足本次扣减数量但未售罄
     else
+        -- 其他节点可能把该商品当作热点租借了库存，仍有节点持有租借库存时不是真正售罄
+        for _, leased in ipairs(redis.call('HVALS', "product_stock_lease_" .. KEYS[1])) do
+            if tonumber(leased) > 0 then
+                return -2  -- 表示递减失败，中心库存已耗尽但其他节点仍持有租借库存
+            end
+        end
         local prefix = "product_stock_invalid_"
         local stock_invalid_tag = prefix .. KEYS[1]
         local exists_tag = redis.call('EXISTS', stock_invalid_tag)
         if exists_tag == 0 then
             -- 键不存在，设置键的值
             redis.call('SET', stock_invalid_tag, "true")
-        return 0  -- 表示递减失败，值不大于0
         end
+        return 0  -- 表示递减失败，值不大于0
     end
 else
     return -1  -- 表示递减失败，键不存在
-end
\ No newline at end of file
+end
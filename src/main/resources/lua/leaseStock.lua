@@ -0,0 +1,48 @@
+local key = KEYS[1]
+local stock_invalid_tag = KEYS[2]
+local lease_key = KEYS[3]
+local lease_size = tonumber(ARGV[1])
+local node = ARGV[2]
+local local_remaining = tonumber(ARGV[3]) or 0
+
+-- 从库存中租借最多 lease_size 个库存到节点本地，lease_size 为 0 时只上报本节点剩余的租借库存
+-- 租借 hash 记录各节点还未用完的租借库存，中心库存和所有节点的租借库存都为 0 才是真正售罄
+if lease_size == nil or lease_size < 0 or local_remaining < 0 then
+    return -3  -- 表示租借失败，租借数量不合法
+end
+local value = redis.call('GET', key)
+if value == false then
+    return -1  -- 表示租借失败，键不存在
+end
+local stock = tonumber(value)
+local granted = 0
+if stock > 0 and lease_size > 0 then
+    granted = math.min(stock, lease_size)
+    redis.call('DECRBY', key, granted)
+end
+
+local held = local_remaining + granted
+if held > 0 then
+    redis.call('HSET', lease_key, node, held)
+    if lease_size == 0 then
+        redis.call('DEL', stock_invalid_tag)  -- 补偿后本节点重新持有库存，不再是售罄状态
+    end
+else
+    redis.call('HDEL', lease_key, node)
+end
+if granted > 0 then
+    return granted  -- 返回实际租借到的数量
+end
+if stock > 0 then
+    return -2  -- 表示只上报，中心库存未售罄
+end
+
+for _, leased in ipairs(redis.call('HVALS', lease_key)) do
+    if tonumber(leased) > 0 then
+        return -2  -- 表示租借失败，中心库存已耗尽但其他节点仍持有租借库存
+    end
+end
+if redis.call('EXISTS', stock_invalid_tag) == 0 then
+    redis.call('SET', stock_invalid_tag, "true")
+end
+return 0  -- 表示租借失败，库存已售罄
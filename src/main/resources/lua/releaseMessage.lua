@@ -0,0 +1,2 @@
+-- 释放消息幂等标识，消费失败需要重试时调用
+return redis.call('HDEL', KEYS[1], ARGV[1])
@@ -0,0 +1,11 @@
+local key = KEYS[1]
+local stock_invalid_tag = KEYS[2]
+local lease_key = KEYS[3]
+
+-- 归还节点本地未使用的库存并删除该节点的租借记录，归还后有库存则清除售罄标识
+local stock = redis.call('INCRBY', key, tonumber(ARGV[1]))
+redis.call('HDEL', lease_key, ARGV[2])
+if stock > 0 then
+    redis.call('DEL', stock_invalid_tag)
+end
+return stock
@@ -0,0 +1,163 @@
+package com.zh.stockdemo.mq.mq.codec;
+
+import com.alibaba.fastjson2.JSON;
+import com.zh.stockdemo.config.StockProperties;
+import com.zh.stockdemo.mq.mq.domain.MessageWrapper;
+import com.zh.stockdemo.mq.mq.event.DecreaseStockEvent;
+import com.zh.stockdemo.mq.mq.event.DecreaseStockItem;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class DecreaseStockMessageCodecTest {
+
+    private final StockProperties stockProperties = new StockProperties();
+
+    private final DecreaseStockMessageCodec codec = new DecreaseStockMessageCodec(stockProperties);
+
+    @Test
+    void roundTripSingleProduct() {
+        MessageWrapper<DecreaseStockEvent> message = new MessageWrapper<>("1001", DecreaseStockEvent.builder()
+                .productId(1)
+                .stockLogId(1001)
+                .amount(3)
+                .build(), UUID.randomUUID().toString(), System.currentTimeMillis());
+
+        assertEquals(message, codec.decode(codec.encode(message)));
+    }
+
+    @Test
+    void roundTripCartItems() {
+        MessageWrapper<DecreaseStockEvent> message = new MessageWrapper<>("2001", DecreaseStockEvent.builder()
+                .stockLogId(2001)
+                .amount(null)
+                .items(Arrays.asList(new DecreaseStockItem(1, 2), new DecreaseStockItem(300, 70000)))
+                .build(), UUID.randomUUID().toString(), 1700000000000L);
+
+        assertEquals(message, codec.decode(codec.encode(message)));
+    }
+
+    @Test
+    void roundTripEmptyItems() {
+        MessageWrapper<DecreaseStockEvent> message = new MessageWrapper<>("3001", DecreaseStockEvent.builder()
+                .productId(1)
+                .items(Collections.emptyList())
+                .build(), UUID.randomUUID().toString(), 1L);
+
+        assertEquals(message, codec.decode(codec.encode(message)));
+    }
+
+    @Test
+    void roundTripNullFields() {
+        DecreaseStockEvent event = new DecreaseStockEvent(null, null, null, null);
+        MessageWrapper<DecreaseStockEvent> message = new MessageWrapper<>();
+        message.setMessage(event);
+        message.setUuid(null);
+        message.setTimestamp(null);
+
+        MessageWrapper<DecreaseStockEvent> decoded = codec.decode(codec.encode(message));
+
+        assertNull(decoded.getKeys());
+        assertNull(decoded.getUuid());
+        assertNull(decoded.getTimestamp());
+        assertEquals(event, decoded.getMessage());
+    }
+
+    /**
+     * 非标准格式的 uuid 按字符串写入，解码后与原值一致
+     */
+    @Test
+    void roundTripNonUuidIds() {
+        for (String uuid : Arrays.asList("", "msg-1", "F81D4FAE-7DEC-11D0-A765-00A0C91E6BF6", "f81d4fae-7dec-11d0-a765-00a0c91e6bf6x", "中文标识")) {
+            MessageWrapper<DecreaseStockEvent> message = new MessageWrapper<>("keys", DecreaseStockEvent.builder()
+                    .productId(1)
+                    .build(), uuid, 1L);
+
+            assertEquals(message, codec.decode(codec.encode(message)), uuid);
+        }
+    }
+
+    /**
+     * zigzag 变长整数覆盖负数、边界值和多字节长度
+     */
+    @Test
+    void roundTripNegativeAndBoundaryValues() {
+        for (int value : new int[]{0, -1, 1, -64, 63, -65, 64, 127, 128, -129, 16383, 16384, Integer.MAX_VALUE, Integer.MIN_VALUE}) {
+            MessageWrapper<DecreaseStockEvent> message = new MessageWrapper<>("keys", DecreaseStockEvent.builder()
+                    .productId(value)
+                    .stockLogId(-value)
+                    .amount(value)
+                    .items(Collections.singletonList(new DecreaseStockItem(value, -value)))
+                    .build(), UUID.randomUUID().toString(), (long) value);
+
+            assertEquals(message, codec.decode(codec.encode(message)), String.valueOf(value));
+        }
+    }
+
+    @Test
+    void negativeValuesEncodeCompactly() {
+        MessageWrapper<DecreaseStockEvent> negative = new MessageWrapper<>("", DecreaseStockEvent.builder()
+                .productId(-1)
+                .build(), UUID.randomUUID().toString(), null);
+        MessageWrapper<DecreaseStockEvent> positive = new MessageWrapper<>("", DecreaseStockEvent.builder()
+                .productId(1)
+                .build(), UUID.randomUUID().toString(), null);
+
+        // zigzag 下 -1 与 1 都只占一个字节，不会按补码展开为 5 个字节
+        assertEquals(codec.encode(positive).length, codec.encode(negative).length);
+    }
+
+    /**
+     * 升级前发送的 JSON 消息仍能解码
+     */
+    @Test
+    void decodeJsonFallback() {
+        MessageWrapper<DecreaseStockEvent> message = new MessageWrapper<>("1001", DecreaseStockEvent.builder()
+                .productId(1)
+                .stockLogId(1001)
+                .amount(2)
+                .build(), UUID.randomUUID().toString(), 1700000000000L);
+
+        assertEquals(message, codec.decode(JSON.toJSONBytes(message)));
+    }
+
+    @Test
+    void decodeLegacyJsonWithoutAmount() {
+        byte[] body = "{\"keys\":\"1001\",\"message\":{\"productId\":1,\"stockLogId\":1001},\"uuid\":\"legacy\",\"timestamp\":1}"
+                .getBytes(StandardCharsets.UTF_8);
+
+        MessageWrapper<DecreaseStockEvent> decoded = codec.decode(body);
+
+        assertEquals("legacy", decoded.getUuid());
+        assertEquals(1, decoded.getMessage().getAmount());
+    }
+
+    @Test
+    void encodeJsonWhenBinaryDisabled() {
+        stockProperties.getCodec().setBinaryEnabled(false);
+        MessageWrapper<DecreaseStockEvent> message = new MessageWrapper<>("1001", DecreaseStockEvent.builder()
+                .productId(1)
+                .stockLogId(1001)
+                .build(), UUID.randomUUID().toString(), 1L);
+
+        byte[] body = codec.encode(message);
+
+        assertEquals('{', body[0]);
+        assertEquals(message, codec.decode(body));
+    }
+
+    @Test
+    void rejectUnknownVersion() {
+        byte[] body = codec.encode(new MessageWrapper<>("1001", DecreaseStockEvent.builder().productId(1).build(), "id", 1L));
+        body[1] = 99;
+
+        assertThrows(IllegalArgumentException.class, () -> codec.decode(body));
+    }
+}
@@ -0,0 +1,99 @@
+package com.zh.stockdemo.mq.mq.produce;
+
+import com.zh.stockdemo.config.StockProperties;
+import com.zh.stockdemo.metrics.StockMetrics;
+import com.zh.stockdemo.mq.mq.codec.DecreaseStockMessageCodec;
+import com.zh.stockdemo.mq.mq.domain.MessageWrapper;
+import com.zh.stockdemo.mq.mq.event.DecreaseStockEvent;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.rocketmq.client.producer.SendResult;
+import org.apache.rocketmq.client.producer.SendStatus;
+import org.apache.rocketmq.common.message.MessageConst;
+import org.apache.rocketmq.spring.core.RocketMQTemplate;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.messaging.Message;
+import org.springframework.mock.env.MockEnvironment;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.verifyNoMoreInteractions;
+import static org.mockito.Mockito.when;
+
+class DecreaseStockProducerTest {
+
+    private static final String DESTINATION = "stock_service_topic:stock_service-decrease-stock_tag";
+
+    private final RocketMQTemplate rocketMQTemplate = mock(RocketMQTemplate.class);
+
+    private final MockEnvironment environment = new MockEnvironment()
+            .withProperty("rocketmq.producer.send-message-timeout", "3000");
+
+    private final DecreaseStockMessageCodec codec = new DecreaseStockMessageCodec(new StockProperties());
+
+    private final DecreaseStockProducer producer = new DecreaseStockProducer(rocketMQTemplate, environment, codec,
+            new StockMetrics(new SimpleMeterRegistry()));
+
+    /**
+     * 多个事件打包为一次批量发送，每条消息的 keys 和标签与单条发送一致
+     */
+    @Test
+    @SuppressWarnings("unchecked")
+    void sendBatchMessageInOneSend() {
+        SendResult sendResult = new SendResult();
+        sendResult.setSendStatus(SendStatus.SEND_OK);
+        when(rocketMQTemplate.syncSend(anyString(), anyCollection(), anyLong())).thenReturn(sendResult);
+        List<DecreaseStockEvent> events = Arrays.asList(
+                DecreaseStockEvent.builder().productId(1).stockLogId(1001).amount(1).build(),
+                DecreaseStockEvent.builder().productId(2).stockLogId(1002).amount(2).build(),
+                DecreaseStockEvent.builder().stockLogId(1003).build());
+
+        assertSame(sendResult, producer.sendBatchMessage(events));
+
+        ArgumentCaptor<Collection<Message<?>>> captor = ArgumentCaptor.forClass(Collection.class);
+        verify(rocketMQTemplate).syncSend(eq(DESTINATION), captor.capture(), eq(3000L));
+        verifyNoMoreInteractions(rocketMQTemplate);
+        List<Message<?>> messages = new ArrayList<>(captor.getValue());
+        assertEquals(3, messages.size());
+        assertEquals(Arrays.asList("1", "2", "cart_1003"), Arrays.asList(
+                messages.get(0).getHeaders().get(MessageConst.PROPERTY_KEYS),
+                messages.get(1).getHeaders().get(MessageConst.PROPERTY_KEYS),
+                messages.get(2).getHeaders().get(MessageConst.PROPERTY_KEYS)));
+        for (int i = 0; i < events.size(); i++) {
+            assertEquals("stock_service-decrease-stock_tag", messages.get(i).getHeaders().get(MessageConst.PROPERTY_TAGS));
+            MessageWrapper<DecreaseStockEvent> decoded = codec.decode((byte[]) messages.get(i).getPayload());
+            assertEquals(events.get(i), decoded.getMessage());
+        }
+    }
+
+    @Test
+    void sendBatchMessageRejectsEmpty() {
+        assertThrows(IllegalArgumentException.class, () -> producer.sendBatchMessage(Collections.emptyList()));
+        verifyNoInteractions(rocketMQTemplate);
+    }
+
+    @Test
+    void sendBatchMessagePropagatesFailure() {
+        RuntimeException failure = new RuntimeException("broker unavailable");
+        when(rocketMQTemplate.syncSend(anyString(), anyCollection(), anyLong())).thenThrow(failure);
+
+        RuntimeException thrown = assertThrows(RuntimeException.class, () -> producer.sendBatchMessage(
+                Collections.singletonList(DecreaseStockEvent.builder().productId(1).stockLogId(1001).build())));
+
+        assertSame(failure, thrown);
+    }
+}
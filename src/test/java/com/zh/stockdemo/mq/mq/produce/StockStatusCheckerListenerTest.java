@@ -0,0 +1,84 @@
+package com.zh.stockdemo.mq.mq.produce;
+
+import com.zh.stockdemo.async.OrderTicketRegistry;
+import com.zh.stockdemo.cache.StockLogStatusIndex;
+import com.zh.stockdemo.config.StockProperties;
+import com.zh.stockdemo.metrics.StockMetrics;
+import com.zh.stockdemo.mq.mq.codec.DecreaseStockMessageCodec;
+import com.zh.stockdemo.mq.mq.domain.MessageWrapper;
+import com.zh.stockdemo.mq.mq.event.DecreaseStockEvent;
+import com.zh.stockdemo.service.OrderService;
+import com.zh.stockdemo.service.StockLogService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.rocketmq.spring.core.RocketMQLocalTransactionState;
+import org.junit.jupiter.api.Test;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+class StockStatusCheckerListenerTest {
+
+    private static final Integer STOCK_LOG_ID = 1001;
+
+    private final OrderService orderService = mock(OrderService.class);
+
+    private final StockLogService stockLogService = mock(StockLogService.class);
+
+    private final OrderTicketRegistry orderTicketRegistry = mock(OrderTicketRegistry.class);
+
+    private final StockLogStatusIndex stockLogStatusIndex = mock(StockLogStatusIndex.class);
+
+    private final StockProperties stockProperties = new StockProperties();
+
+    private final DecreaseStockMessageCodec codec = new DecreaseStockMessageCodec(stockProperties);
+
+    private final StockStatusCheckerListener listener = new StockStatusCheckerListener(orderService, stockLogService,
+            mock(TransactionTemplate.class), orderTicketRegistry, codec, stockLogStatusIndex, stockProperties,
+            new StockMetrics(new SimpleMeterRegistry()));
+
+    private final DecreaseStockEvent event = DecreaseStockEvent.builder()
+            .productId(1)
+            .stockLogId(STOCK_LOG_ID)
+            .amount(2)
+            .build();
+
+    /**
+     * 创建订单失败时回滚消息，流水和下单凭证都标记为失败
+     */
+    @Test
+    void createOrderFailureRollsBack() {
+        doThrow(new RuntimeException("insert failed")).when(orderService).createOrder(1, STOCK_LOG_ID, 2);
+
+        RocketMQLocalTransactionState state = listener.executeLocalTransaction(message(), null);
+
+        assertEquals(RocketMQLocalTransactionState.ROLLBACK, state);
+        verify(stockLogService).upsertStatus(event, 2);
+        verify(stockLogStatusIndex).record(STOCK_LOG_ID, 2);
+        verify(orderTicketRegistry).complete(STOCK_LOG_ID, 2);
+        verify(orderTicketRegistry, never()).complete(anyInt(), eq(1));
+    }
+
+    @Test
+    void createOrderSuccessCommits() {
+        RocketMQLocalTransactionState state = listener.executeLocalTransaction(message(), null);
+
+        assertEquals(RocketMQLocalTransactionState.COMMIT, state);
+        verify(orderTicketRegistry).complete(STOCK_LOG_ID, 1);
+        verify(stockLogService, never()).upsertStatus(event, 2);
+    }
+
+    private Message<byte[]> message() {
+        return MessageBuilder.withPayload(codec.encode(new MessageWrapper<>(String.valueOf(STOCK_LOG_ID), event,
+                UUID.randomUUID().toString(), System.currentTimeMillis()))).build();
+    }
+}
@@ -0,0 +1,110 @@
+package com.zh.stockdemo.reconcile;
+
+import com.zh.stockdemo.config.StockProperties;
+import com.zh.stockdemo.constant.StockRedisConstant;
+import com.zh.stockdemo.entity.Stock;
+import com.zh.stockdemo.entity.StockLog;
+import com.zh.stockdemo.mapper.StockLogMapper;
+import com.zh.stockdemo.mapper.StockMapper;
+import com.zh.stockdemo.redis.EmbeddedRedis;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisTemplate;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.Collections;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class StockReconcilerTest {
+
+    private static final Integer PRODUCT_ID = 1;
+
+    private static EmbeddedRedis embeddedRedis;
+
+    private static RedisTemplate<String, Object> redisTemplate;
+
+    private final StockMapper stockMapper = mock(StockMapper.class);
+
+    private final StockLogMapper stockLogMapper = mock(StockLogMapper.class);
+
+    private StockReconciler stockReconciler;
+
+    @BeforeAll
+    static void startRedis() throws IOException {
+        embeddedRedis = new EmbeddedRedis();
+        redisTemplate = embeddedRedis.getRedisTemplate();
+    }
+
+    @AfterAll
+    static void stopRedis() throws IOException {
+        embeddedRedis.close();
+    }
+
+    @BeforeEach
+    void setUp() {
+        redisTemplate.execute((RedisCallback<Object>) connection -> {
+            connection.serverCommands().flushAll();
+            return null;
+        });
+        StockProperties stockProperties = new StockProperties();
+        stockProperties.getReconcile().setEnabled(true);
+        stockProperties.getReconcile().setPassInterval(Duration.ofMillis(1));
+        stockReconciler = new StockReconciler(stockMapper, stockLogMapper, redisTemplate, stockProperties);
+
+        Stock stock = new Stock();
+        stock.setId(1);
+        stock.setProductId(PRODUCT_ID);
+        stock.setStockNum(10);
+        when(stockMapper.selectList(any())).thenReturn(Collections.singletonList(stock));
+        redisTemplate.opsForValue().set(StockRedisConstant.stockKey(PRODUCT_ID), 7);
+        when(stockLogMapper.sumPendingAmount(anyCollection())).thenReturn(Collections.singletonList(StockLog.builder()
+                .productId(PRODUCT_ID)
+                .amount(1)
+                .build()));
+    }
+
+    /**
+     * 处理中的购物车流水按明细计入对应商品，Redis 比 MySQL 少的部分不记为差异
+     */
+    @Test
+    void pendingCartLogsCountTowardsPendingAmount() throws InterruptedException {
+        when(stockLogMapper.selectPendingCartLogs()).thenReturn(Collections.singletonList(StockLog.builder()
+                .id(1001)
+                .items("[{\"productId\":1,\"amount\":2},{\"productId\":2,\"amount\":5}]")
+                .build()));
+
+        reconcileTwice();
+
+        assertTrue(stockReconciler.getRecentDrifts().isEmpty());
+    }
+
+    @Test
+    void driftBeyondPendingAmountIsReported() throws InterruptedException {
+        when(stockLogMapper.selectPendingCartLogs()).thenReturn(Collections.emptyList());
+
+        reconcileTwice();
+
+        assertEquals(1, stockReconciler.getRecentDrifts().size());
+        assertEquals(3L, stockReconciler.getRecentDrifts().get(0).getDrift());
+        assertEquals(1L, stockReconciler.getRecentDrifts().get(0).getPendingAmount());
+    }
+
+    /**
+     * 差异需要相邻两轮相同才记录
+     */
+    private void reconcileTwice() throws InterruptedException {
+        stockReconciler.reconcile();
+        Thread.sleep(10L);
+        stockReconciler.reconcile();
+    }
+}
@@ -0,0 +1,63 @@
+package com.zh.stockdemo.redis;
+
+import com.zh.stockdemo.config.RedisConfig;
+import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.RedisTemplate;
+import redis.embedded.RedisServer;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+
+/**
+ * 单元测试和基准测试使用的本地 Redis
+ * <p>
+ * 在随机端口启动 embedded-redis 内置的 redis-server，RedisTemplate 与应用使用同一份 {@link RedisConfig} 配置，
+ * Lua 脚本同样通过 {@link RedisScriptRegistry} 加载，测试的是应用侧的完整调用路径加上一次本地网络往返。
+ *
+ */
+public class EmbeddedRedis implements AutoCloseable {
+
+    private final RedisServer server;
+
+    private final LettuceConnectionFactory connectionFactory;
+
+    private final RedisTemplate<String, Object> redisTemplate;
+
+    private final RedisScriptRegistry redisScriptRegistry;
+
+    public EmbeddedRedis() throws IOException {
+        int port = freePort();
+        server = RedisServer.newRedisServer()
+                .port(port)
+                .setting("bind 127.0.0.1")
+                .setting("save \"\"")
+                .build();
+        server.start();
+        connectionFactory = new LettuceConnectionFactory(new RedisStandaloneConfiguration("127.0.0.1", port));
+        connectionFactory.afterPropertiesSet();
+        redisTemplate = new RedisConfig().redisTemplate(connectionFactory);
+        redisScriptRegistry = new RedisScriptRegistry(redisTemplate);
+        redisScriptRegistry.afterPropertiesSet();
+    }
+
+    public RedisTemplate<String, Object> getRedisTemplate() {
+        return redisTemplate;
+    }
+
+    public RedisScriptRegistry getRedisScriptRegistry() {
+        return redisScriptRegistry;
+    }
+
+    @Override
+    public void close() throws IOException {
+        connectionFactory.destroy();
+        server.stop();
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+}
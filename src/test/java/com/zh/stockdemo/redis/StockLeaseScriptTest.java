@@ -0,0 +1,166 @@
+package com.zh.stockdemo.redis;
+
+import com.zh.stockdemo.constant.StockRedisConstant;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisTemplate;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 租借和归还库存脚本：中心库存和所有节点的租借库存都用完才标记售罄
+ */
+class StockLeaseScriptTest {
+
+    private static final Integer PRODUCT_ID = 1;
+
+    private static EmbeddedRedis embeddedRedis;
+
+    private static RedisTemplate<String, Object> redisTemplate;
+
+    private static RedisScriptRegistry redisScriptRegistry;
+
+    @BeforeAll
+    static void startRedis() throws IOException {
+        embeddedRedis = new EmbeddedRedis();
+        redisTemplate = embeddedRedis.getRedisTemplate();
+        redisScriptRegistry = embeddedRedis.getRedisScriptRegistry();
+    }
+
+    @AfterAll
+    static void stopRedis() throws IOException {
+        embeddedRedis.close();
+    }
+
+    @BeforeEach
+    void flush() {
+        redisTemplate.execute((RedisCallback<Object>) connection -> {
+            connection.serverCommands().flushAll();
+            return null;
+        });
+    }
+
+    @Test
+    void leaseAtMostRemainingStock() {
+        setStock(3);
+
+        assertEquals(3L, lease(5, "a", 0));
+        assertEquals(0L, stock());
+        assertEquals(1L, leaseHolders());
+    }
+
+    @Test
+    void leaseMissing() {
+        assertEquals(-1L, lease(5, "a", 0));
+    }
+
+    @Test
+    void leaseRejectsNegativeSize() {
+        setStock(3);
+
+        assertEquals(-3L, lease(-1, "a", 0));
+        assertEquals(3L, stock());
+    }
+
+    /**
+     * 中心库存耗尽但其他节点仍持有租借库存时不标记售罄，最后一个节点用完后才标记
+     */
+    @Test
+    void soldOutOnlyWhenNoNodeHoldsLease() {
+        setStock(4);
+        assertEquals(4L, lease(4, "a", 0));
+
+        assertEquals(-2L, lease(4, "b", 0));
+        assertFalse(soldOut());
+
+        assertEquals(0L, lease(0, "a", 0));
+        assertTrue(soldOut());
+        assertEquals(0L, leaseHolders());
+    }
+
+    /**
+     * 其他节点直接扣减中心库存时，仍有节点持有租借库存则返回库存不足，不设置售罄标识
+     */
+    @Test
+    void centralScriptsRespectLeases() {
+        setStock(2);
+        assertEquals(2L, lease(2, "a", 0));
+
+        assertEquals(-2L, redisScriptRegistry.execute(StockRedisConstant.LUA_DECRESE_STOCK,
+                Collections.singletonList(StockRedisConstant.stockKey(PRODUCT_ID)), 1));
+        assertEquals(Arrays.asList(-2L, -3L), redisScriptRegistry.execute(StockRedisConstant.LUA_DECREASE_STOCK_BATCH, List.class,
+                keys(), 1, 0));
+        assertEquals(Arrays.asList(-2L, 1L), redisScriptRegistry.execute(StockRedisConstant.LUA_DECREASE_CART_STOCK, List.class,
+                Collections.singletonList(StockRedisConstant.stockKey(PRODUCT_ID)), 1));
+        assertFalse(soldOut());
+
+        // 最后一个持有租借库存的节点用完后，中心脚本恢复售罄判断
+        assertEquals(0L, lease(0, "a", 0));
+        assertTrue(soldOut());
+        assertEquals(0L, redisScriptRegistry.execute(StockRedisConstant.LUA_DECRESE_STOCK,
+                Collections.singletonList(StockRedisConstant.stockKey(PRODUCT_ID)), 1));
+    }
+
+    @Test
+    void reportRemainingClearsSoldOut() {
+        setStock(0);
+        assertEquals(0L, lease(1, "a", 0));
+        assertTrue(soldOut());
+
+        // 补偿后节点本地重新持有库存
+        assertEquals(-2L, lease(0, "a", 2));
+        assertFalse(soldOut());
+        assertEquals(1L, leaseHolders());
+    }
+
+    @Test
+    void returnStockRemovesLease() {
+        setStock(4);
+        assertEquals(4L, lease(4, "a", 0));
+
+        assertEquals(3L, returnStock(3, "a"));
+        assertEquals(0L, leaseHolders());
+        assertEquals(3L, stock());
+        assertFalse(soldOut());
+    }
+
+    private Long lease(int size, String node, int remaining) {
+        return redisScriptRegistry.execute(StockRedisConstant.LUA_LEASE_STOCK, keys(), size, node, remaining);
+    }
+
+    private Long returnStock(int remaining, String node) {
+        return redisScriptRegistry.execute(StockRedisConstant.LUA_RETURN_STOCK, keys(), remaining, node);
+    }
+
+    private List<String> keys() {
+        return Arrays.asList(StockRedisConstant.stockKey(PRODUCT_ID),
+                StockRedisConstant.stockInvalidKey(PRODUCT_ID),
+                StockRedisConstant.stockLeaseKey(PRODUCT_ID));
+    }
+
+    private void setStock(int stock) {
+        redisTemplate.opsForValue().set(StockRedisConstant.stockKey(PRODUCT_ID), stock);
+    }
+
+    private long stock() {
+        return Long.parseLong(String.valueOf(redisTemplate.opsForValue().get(StockRedisConstant.stockKey(PRODUCT_ID))));
+    }
+
+    private long leaseHolders() {
+        return redisTemplate.opsForHash().size(StockRedisConstant.stockLeaseKey(PRODUCT_ID));
+    }
+
+    private boolean soldOut() {
+        return Boolean.TRUE.equals(redisTemplate.hasKey(StockRedisConstant.stockInvalidKey(PRODUCT_ID)));
+    }
+}
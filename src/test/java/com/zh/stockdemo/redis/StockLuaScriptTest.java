@@ -0,0 +1,272 @@
+package com.zh.stockdemo.redis;
+
+import com.zh.stockdemo.constant.StockRedisConstant;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisTemplate;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 库存 Lua 脚本在真实 redis-server 上的返回值和库存变化
+ */
+class StockLuaScriptTest {
+
+    private static final Integer PRODUCT_ID = 1;
+
+    private static final Integer OTHER_PRODUCT_ID = 2;
+
+    private static EmbeddedRedis embeddedRedis;
+
+    private static RedisTemplate<String, Object> redisTemplate;
+
+    private static RedisScriptRegistry redisScriptRegistry;
+
+    @BeforeAll
+    static void startRedis() throws IOException {
+        embeddedRedis = new EmbeddedRedis();
+        redisTemplate = embeddedRedis.getRedisTemplate();
+        redisScriptRegistry = embeddedRedis.getRedisScriptRegistry();
+    }
+
+    @AfterAll
+    static void stopRedis() throws IOException {
+        embeddedRedis.close();
+    }
+
+    @BeforeEach
+    void flush() {
+        redisTemplate.execute((RedisCallback<Object>) connection -> {
+            connection.serverCommands().flushAll();
+            return null;
+        });
+    }
+
+    @Test
+    void decreaseStock() {
+        setStock(PRODUCT_ID, 5);
+
+        assertEquals(1L, decreaseStock(3));
+        assertEquals(2L, stock(PRODUCT_ID));
+    }
+
+    @Test
+    void decreaseStockInsufficient() {
+        setStock(PRODUCT_ID, 2);
+
+        assertEquals(-2L, decreaseStock(3));
+        assertEquals(2L, stock(PRODUCT_ID));
+        assertFalse(soldOut(PRODUCT_ID));
+    }
+
+    @Test
+    void decreaseStockSoldOut() {
+        setStock(PRODUCT_ID, 0);
+
+        assertEquals(0L, decreaseStock(1));
+        assertTrue(soldOut(PRODUCT_ID));
+    }
+
+    @Test
+    void decreaseStockMissing() {
+        assertEquals(-1L, decreaseStock(1));
+    }
+
+    @Test
+    void decreaseStockRejectsNonPositiveAmount() {
+        setStock(PRODUCT_ID, 5);
+
+        assertEquals(-3L, decreaseStock(-3));
+        assertEquals(-3L, decreaseStock(0));
+        assertEquals(5L, stock(PRODUCT_ID));
+    }
+
+    /**
+     * 单个分段只在足够时扣减，不足时不扣减，由调用方改为跨分段扣减
+     */
+    @Test
+    void decreaseSegmentStock() {
+        String segmentKey = StockRedisConstant.stockSegmentKey(PRODUCT_ID, 0);
+        redisTemplate.opsForValue().set(segmentKey, 2);
+
+        assertEquals(-2L, execute(StockRedisConstant.LUA_DECRESE_SEGMENT_STOCK, segmentKey, 5));
+        assertEquals(2L, segmentStock(0));
+        assertEquals(1L, execute(StockRedisConstant.LUA_DECRESE_SEGMENT_STOCK, segmentKey, 2));
+        assertEquals(0L, execute(StockRedisConstant.LUA_DECRESE_SEGMENT_STOCK, segmentKey, 1));
+        assertFalse(soldOut(PRODUCT_ID));
+        assertEquals(-1L, execute(StockRedisConstant.LUA_DECRESE_SEGMENT_STOCK, StockRedisConstant.stockSegmentKey(PRODUCT_ID, 1), 1));
+    }
+
+    @Test
+    void decreaseSegmentStockRejectsNonPositiveAmount() {
+        String segmentKey = StockRedisConstant.stockSegmentKey(PRODUCT_ID, 0);
+        redisTemplate.opsForValue().set(segmentKey, 2);
+
+        assertEquals(-3L, execute(StockRedisConstant.LUA_DECRESE_SEGMENT_STOCK, segmentKey, -1));
+        assertEquals(2L, segmentStock(0));
+    }
+
+    /**
+     * 跨分段扣减按顺序从各分段扣减全部数量
+     */
+    @Test
+    void decreaseAllSegmentStock() {
+        setSegments(1, 0, 3);
+
+        assertEquals(1L, decreaseAllSegmentStock(3));
+        assertEquals(0L, segmentStock(0));
+        assertEquals(0L, segmentStock(1));
+        assertEquals(1L, segmentStock(2));
+    }
+
+    /**
+     * 所有分段加起来不足时一个分段都不扣减，也不设置售罄标识
+     */
+    @Test
+    void decreaseAllSegmentStockInsufficient() {
+        setSegments(1, 0, 3);
+
+        assertEquals(-2L, decreaseAllSegmentStock(5));
+        assertEquals(1L, segmentStock(0));
+        assertEquals(3L, segmentStock(2));
+        assertFalse(soldOut(PRODUCT_ID));
+    }
+
+    @Test
+    void decreaseAllSegmentStockSoldOut() {
+        setSegments(0, 0, 0);
+
+        assertEquals(0L, decreaseAllSegmentStock(1));
+        assertTrue(soldOut(PRODUCT_ID));
+    }
+
+    @Test
+    void decreaseAllSegmentStockMissing() {
+        assertEquals(-1L, decreaseAllSegmentStock(1));
+        assertFalse(soldOut(PRODUCT_ID));
+    }
+
+    @Test
+    void decreaseAllSegmentStockRejectsNonPositiveAmount() {
+        setSegments(1, 1, 1);
+
+        assertEquals(-3L, decreaseAllSegmentStock(0));
+        assertEquals(-3L, decreaseAllSegmentStock(-1));
+        assertEquals(1L, segmentStock(0));
+    }
+
+    /**
+     * 合并扣减按到达顺序逐个判断，结果与逐个执行单次扣减相同
+     */
+    @Test
+    void decreaseStockBatch() {
+        setStock(PRODUCT_ID, 3);
+
+        List<?> results = redisScriptRegistry.execute(StockRedisConstant.LUA_DECREASE_STOCK_BATCH, List.class,
+                Arrays.asList(StockRedisConstant.stockKey(PRODUCT_ID), StockRedisConstant.stockInvalidKey(PRODUCT_ID),
+                        StockRedisConstant.stockLeaseKey(PRODUCT_ID)),
+                2, -1, 5, 1, 1);
+
+        assertEquals(Arrays.asList(1L, -3L, -2L, 1L, 0L), results);
+        assertEquals(0L, stock(PRODUCT_ID));
+        assertTrue(soldOut(PRODUCT_ID));
+    }
+
+    @Test
+    void decreaseCartStock() {
+        setStock(PRODUCT_ID, 5);
+        setStock(OTHER_PRODUCT_ID, 3);
+
+        assertEquals(Arrays.asList(1L, 0L), decreaseCartStock(2, 3));
+        assertEquals(3L, stock(PRODUCT_ID));
+        assertEquals(0L, stock(OTHER_PRODUCT_ID));
+    }
+
+    /**
+     * 任一商品不足时所有商品都不扣减，返回第一个失败商品的下标
+     */
+    @Test
+    void decreaseCartStockInsufficient() {
+        setStock(PRODUCT_ID, 5);
+        setStock(OTHER_PRODUCT_ID, 1);
+
+        assertEquals(Arrays.asList(-2L, 2L), decreaseCartStock(2, 2));
+        assertEquals(5L, stock(PRODUCT_ID));
+        assertEquals(1L, stock(OTHER_PRODUCT_ID));
+    }
+
+    @Test
+    void decreaseCartStockSoldOut() {
+        setStock(PRODUCT_ID, 5);
+        setStock(OTHER_PRODUCT_ID, 0);
+
+        assertEquals(Arrays.asList(0L, 2L), decreaseCartStock(1, 1));
+        assertEquals(5L, stock(PRODUCT_ID));
+        assertTrue(soldOut(OTHER_PRODUCT_ID));
+    }
+
+    @Test
+    void decreaseCartStockRejectsNonPositiveAmount() {
+        setStock(PRODUCT_ID, 5);
+        setStock(OTHER_PRODUCT_ID, 5);
+
+        assertEquals(Arrays.asList(-3L, 2L), decreaseCartStock(1, -2));
+        assertEquals(5L, stock(PRODUCT_ID));
+        assertEquals(5L, stock(OTHER_PRODUCT_ID));
+    }
+
+    private Long decreaseStock(int amount) {
+        return execute(StockRedisConstant.LUA_DECRESE_STOCK, StockRedisConstant.stockKey(PRODUCT_ID), amount);
+    }
+
+    private Long decreaseAllSegmentStock(int amount) {
+        return redisScriptRegistry.execute(StockRedisConstant.LUA_DECREASE_ALL_SEGMENT_STOCK,
+                Arrays.asList(StockRedisConstant.stockInvalidKey(PRODUCT_ID),
+                        StockRedisConstant.stockSegmentKey(PRODUCT_ID, 0),
+                        StockRedisConstant.stockSegmentKey(PRODUCT_ID, 1),
+                        StockRedisConstant.stockSegmentKey(PRODUCT_ID, 2)),
+                amount);
+    }
+
+    private List<?> decreaseCartStock(int amount, int otherAmount) {
+        return redisScriptRegistry.execute(StockRedisConstant.LUA_DECREASE_CART_STOCK, List.class,
+                Arrays.asList(StockRedisConstant.stockKey(PRODUCT_ID), StockRedisConstant.stockKey(OTHER_PRODUCT_ID)),
+                amount, otherAmount);
+    }
+
+    private Long execute(String script, String key, Object... args) {
+        return redisScriptRegistry.execute(script, Collections.singletonList(key), args);
+    }
+
+    private void setStock(Integer productId, int stock) {
+        redisTemplate.opsForValue().set(StockRedisConstant.stockKey(productId), stock);
+    }
+
+    private void setSegments(int... stocks) {
+        for (int i = 0; i < stocks.length; i++) {
+            redisTemplate.opsForValue().set(StockRedisConstant.stockSegmentKey(PRODUCT_ID, i), stocks[i]);
+        }
+    }
+
+    private long segmentStock(int segment) {
+        return Long.parseLong(String.valueOf(redisTemplate.opsForValue().get(StockRedisConstant.stockSegmentKey(PRODUCT_ID, segment))));
+    }
+
+    private long stock(Integer productId) {
+        return Long.parseLong(String.valueOf(redisTemplate.opsForValue().get(StockRedisConstant.stockKey(productId))));
+    }
+
+    private boolean soldOut(Integer productId) {
+        return Boolean.TRUE.equals(redisTemplate.hasKey(StockRedisConstant.stockInvalidKey(productId)));
+    }
+}
@@ -0,0 +1,106 @@
+package com.zh.stockdemo.service.impl;
+
+import com.baomidou.mybatisplus.core.incrementer.IdentifierGenerator;
+import com.zh.stockdemo.batch.OrderGroupCommitWriter;
+import com.zh.stockdemo.cache.EntityCacheManager;
+import com.zh.stockdemo.cache.StockLogStatusIndex;
+import com.zh.stockdemo.config.StockProperties;
+import com.zh.stockdemo.entity.Order;
+import com.zh.stockdemo.mapper.OrderMapper;
+import com.zh.stockdemo.mapper.StockLogMapper;
+import com.zh.stockdemo.service.RedisStockService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class OrderServiceImplTest {
+
+    private static final Integer PRODUCT_ID = 1;
+
+    private static final Integer STOCK_LOG_ID = 1001;
+
+    private final OrderMapper orderMapper = mock(OrderMapper.class);
+
+    private final StockLogMapper stockLogMapper = mock(StockLogMapper.class);
+
+    private final RedisStockService redisStockService = mock(RedisStockService.class);
+
+    private final PlatformTransactionManager transactionManager = mock(PlatformTransactionManager.class);
+
+    private final OrderGroupCommitWriter orderGroupCommitWriter = mock(OrderGroupCommitWriter.class);
+
+    private final StockProperties stockProperties = new StockProperties();
+
+    private final StockLogStatusIndex stockLogStatusIndex = mock(StockLogStatusIndex.class);
+
+    private OrderServiceImpl orderService;
+
+    @BeforeEach
+    void setUp() {
+        orderService = new OrderServiceImpl(orderMapper, stockLogMapper, redisStockService,
+                new TransactionTemplate(transactionManager), orderGroupCommitWriter, stockProperties,
+                stockLogStatusIndex, mock(IdentifierGenerator.class), mock(EntityCacheManager.class));
+        when(redisStockService.decreaseStock(PRODUCT_ID, STOCK_LOG_ID, 2)).thenReturn(1L);
+    }
+
+    /**
+     * 订单写入失败时事务回滚、补偿 Redis 库存，并把异常抛给事务监听器回滚消息
+     */
+    @Test
+    void createOrderFailureCompensatesAndRethrows() {
+        RuntimeException failure = new RuntimeException("insert failed");
+        when(orderMapper.insert(any(Order.class))).thenThrow(failure);
+
+        RuntimeException thrown = assertThrows(RuntimeException.class, () -> orderService.createOrder(PRODUCT_ID, STOCK_LOG_ID, 2));
+
+        assertSame(failure, thrown);
+        verify(transactionManager).rollback(any());
+        verify(redisStockService).increaseStock(PRODUCT_ID, STOCK_LOG_ID, 2);
+        verify(stockLogMapper, never()).upsertStatusBatch(anyList());
+        verify(stockLogStatusIndex, never()).record(anyInt(), anyInt());
+    }
+
+    @Test
+    void createOrderGroupCommitFailureCompensatesAndRethrows() {
+        stockProperties.getGroupCommit().setEnabled(true);
+        RuntimeException failure = new RuntimeException("batch failed");
+        doThrow(failure).when(orderGroupCommitWriter).write(PRODUCT_ID, STOCK_LOG_ID, 2);
+
+        RuntimeException thrown = assertThrows(RuntimeException.class, () -> orderService.createOrder(PRODUCT_ID, STOCK_LOG_ID, 2));
+
+        assertSame(failure, thrown);
+        verify(redisStockService).increaseStock(PRODUCT_ID, STOCK_LOG_ID, 2);
+        verify(stockLogStatusIndex, never()).record(anyInt(), anyInt());
+    }
+
+    @Test
+    void createOrderSoldOutSkipsInsert() {
+        when(redisStockService.decreaseStock(PRODUCT_ID, STOCK_LOG_ID, 2)).thenReturn(0L);
+
+        assertThrows(RuntimeException.class, () -> orderService.createOrder(PRODUCT_ID, STOCK_LOG_ID, 2));
+
+        verify(orderMapper, never()).insert(any(Order.class));
+        verify(redisStockService, never()).increaseStock(anyInt(), anyInt(), anyInt());
+    }
+
+    @Test
+    void createOrderRecordsStatus() {
+        orderService.createOrder(PRODUCT_ID, STOCK_LOG_ID, 2);
+
+        verify(transactionManager).commit(any());
+        verify(stockLogStatusIndex).record(STOCK_LOG_ID, 1);
+        verify(redisStockService, never()).increaseStock(anyInt(), anyInt(), anyInt());
+    }
+}
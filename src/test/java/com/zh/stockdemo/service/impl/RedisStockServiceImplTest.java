@@ -0,0 +1,182 @@
+package com.zh.stockdemo.service.impl;
+
+import com.zh.stockdemo.batch.StockDecreaseCoalescer;
+import com.zh.stockdemo.cache.HotProductDetector;
+import com.zh.stockdemo.cache.SoldOutIndex;
+import com.zh.stockdemo.cache.StockLeaseManager;
+import com.zh.stockdemo.config.StockProperties;
+import com.zh.stockdemo.constant.StockRedisConstant;
+import com.zh.stockdemo.metrics.StockMetrics;
+import com.zh.stockdemo.mq.mq.event.DecreaseStockItem;
+import com.zh.stockdemo.redis.EmbeddedRedis;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.mock.env.MockEnvironment;
+
+import java.io.IOException;
+import java.util.Collections;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * 多个节点共用一个 Redis 时的库存扣减
+ */
+class RedisStockServiceImplTest {
+
+    private static final Integer PRODUCT_ID = 1;
+
+    private static EmbeddedRedis embeddedRedis;
+
+    private static RedisTemplate<String, Object> redisTemplate;
+
+    private Node nodeA;
+
+    private Node nodeB;
+
+    @BeforeAll
+    static void startRedis() throws IOException {
+        embeddedRedis = new EmbeddedRedis();
+        redisTemplate = embeddedRedis.getRedisTemplate();
+    }
+
+    @AfterAll
+    static void stopRedis() throws IOException {
+        embeddedRedis.close();
+    }
+
+    @BeforeEach
+    void setUp() {
+        redisTemplate.execute((RedisCallback<Object>) connection -> {
+            connection.serverCommands().flushAll();
+            return null;
+        });
+        nodeA = new Node("a");
+        nodeB = new Node("b");
+    }
+
+    /**
+     * 节点 a 认为商品是热点并租借了全部库存，节点 b 不认为是热点、直接扣减 Redis：
+     * b 只能得到库存不足，不能设置售罄标识；a 用完租借库存后才标记售罄
+     */
+    @Test
+    void nodesDisagreeOnHotProduct() {
+        setStock(10);
+        when(nodeA.hotProductDetector.useLease(PRODUCT_ID)).thenReturn(true);
+
+        assertEquals(1L, nodeA.service.decreaseStock(PRODUCT_ID, 1001, 1));
+        assertEquals(0L, stock());
+
+        assertEquals(-2L, nodeB.service.decreaseStock(PRODUCT_ID, 1002, 1));
+        assertEquals(-2L, nodeB.service.decreaseCartStock(Collections.singletonList(new DecreaseStockItem(PRODUCT_ID, 1)), 1003));
+        assertFalse(soldOut());
+        verify(nodeB.soldOutIndex, never()).markSoldOut(PRODUCT_ID);
+
+        for (int i = 0; i < 9; i++) {
+            assertEquals(1L, nodeA.service.decreaseStock(PRODUCT_ID, 2000 + i, 1));
+        }
+        assertTrue(soldOut());
+        verify(nodeA.soldOutIndex).markSoldOut(PRODUCT_ID);
+
+        assertEquals(0L, nodeB.service.decreaseStock(PRODUCT_ID, 1004, 1));
+        verify(nodeB.soldOutIndex).markSoldOut(PRODUCT_ID);
+    }
+
+    /**
+     * 热点标记过期后本节点继续用完已租借的库存，而不是转去扣减已经耗尽的中心库存
+     */
+    @Test
+    void keepUsingLeaseAfterHotMarkExpires() {
+        setStock(10);
+        when(nodeA.hotProductDetector.useLease(PRODUCT_ID)).thenReturn(true, false);
+
+        assertEquals(1L, nodeA.service.decreaseStock(PRODUCT_ID, 1001, 1));
+        assertEquals(1L, nodeA.service.decreaseStock(PRODUCT_ID, 1002, 1));
+
+        assertEquals(8L, nodeA.stockLeaseManager.getLocalStock(PRODUCT_ID));
+        assertEquals(0L, stock());
+        assertFalse(soldOut());
+    }
+
+    /**
+     * 选中的分段不足时跨所有分段一次扣减，不足时所有分段保持不变，都耗尽才标记售罄
+     */
+    @Test
+    void segmentedDecreaseIsAllOrNothing() {
+        Node node = new Node("a", 2);
+        setSegment(0, 2);
+        setSegment(1, 1);
+
+        assertEquals(-2L, node.service.decreaseStock(PRODUCT_ID, 0, 4));
+        assertEquals(2L, segmentStock(0));
+        assertEquals(1L, segmentStock(1));
+
+        assertEquals(1L, node.service.decreaseStock(PRODUCT_ID, 0, 3));
+        assertEquals(0L, segmentStock(0));
+        assertEquals(0L, segmentStock(1));
+        assertFalse(soldOut());
+        verify(node.soldOutIndex, never()).markSoldOut(PRODUCT_ID);
+
+        assertEquals(0L, node.service.decreaseStock(PRODUCT_ID, 1, 1));
+        assertTrue(soldOut());
+        verify(node.soldOutIndex).markSoldOut(PRODUCT_ID);
+    }
+
+    private void setSegment(int segment, int stock) {
+        redisTemplate.opsForValue().set(StockRedisConstant.stockSegmentKey(PRODUCT_ID, segment), stock);
+    }
+
+    private long segmentStock(int segment) {
+        return Long.parseLong(String.valueOf(redisTemplate.opsForValue().get(StockRedisConstant.stockSegmentKey(PRODUCT_ID, segment))));
+    }
+
+    private void setStock(int stock) {
+        redisTemplate.opsForValue().set(StockRedisConstant.stockKey(PRODUCT_ID), stock);
+    }
+
+    private long stock() {
+        return Long.parseLong(String.valueOf(redisTemplate.opsForValue().get(StockRedisConstant.stockKey(PRODUCT_ID))));
+    }
+
+    private boolean soldOut() {
+        return Boolean.TRUE.equals(redisTemplate.hasKey(StockRedisConstant.stockInvalidKey(PRODUCT_ID)));
+    }
+
+    private static class Node {
+
+        private final SoldOutIndex soldOutIndex = mock(SoldOutIndex.class);
+
+        private final HotProductDetector hotProductDetector = mock(HotProductDetector.class);
+
+        private final StockLeaseManager stockLeaseManager;
+
+        private final RedisStockServiceImpl service;
+
+        private Node(String nodeId) {
+            this(nodeId, 0);
+        }
+
+        private Node(String nodeId, int segments) {
+            StockProperties stockProperties = new StockProperties();
+            stockProperties.getSegment().setEnabled(segments > 1);
+            stockProperties.getSegment().setCount(segments);
+            stockProperties.getLease().setSize(10);
+            stockProperties.getLease().setNodeId(nodeId);
+            stockLeaseManager = new StockLeaseManager(embeddedRedis.getRedisScriptRegistry(), stockProperties, soldOutIndex,
+                    new MockEnvironment());
+            service = new RedisStockServiceImpl(redisTemplate, embeddedRedis.getRedisScriptRegistry(), stockProperties,
+                    soldOutIndex, stockLeaseManager, hotProductDetector, mock(StockDecreaseCoalescer.class),
+                    new StockMetrics(new SimpleMeterRegistry()));
+        }
+    }
+}